@@ -0,0 +1,293 @@
+package hackemulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+
+import static hackemulator.CPU.*;
+
+/*
+Translates one basic block of decoded Hack instructions into the bytecode of a hidden class that
+implements Jit.Block. A and D live in JVM locals for the whole block and are loaded from and
+stored back to the registers array at its edges. The class file is written by hand in version 49
+format, which needs no stack map frames and only references java.lang.Object and Jit.Block.
+ */
+class BlockCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Constant pool indices, see classFile()
+    private static final int THIS_CLASS = 2, OBJECT_CLASS = 4, BLOCK_INTERFACE = 6, INIT_NAME = 7,
+            VOID_DESCRIPTOR = 8, OBJECT_INIT = 10, RUN_NAME = 11, RUN_DESCRIPTOR = 12, CODE = 13,
+            CONSTANT_POOL_COUNT = 14;
+
+    // Opcodes
+    private static final int ICONST_M1 = 0x02, ICONST_0 = 0x03, ICONST_1 = 0x04, SIPUSH = 0x11, ILOAD = 0x15,
+            ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, IALOAD = 0x2e, SALOAD = 0x35, ISTORE = 0x36,
+            IASTORE = 0x4f, SASTORE = 0x56, IADD = 0x60, ISUB = 0x64, IAND = 0x7e, IOR = 0x80,
+            IXOR = 0x82, I2S = 0x93, IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d,
+            IFLE = 0x9e, IRETURN = 0xac, RETURN = 0xb1, INVOKESPECIAL = 0xb7;
+
+    // Locals of run(short[] ram, int[] registers)
+    private static final int RAM = 1, REGISTERS = 2, LOCAL_A = 3, LOCAL_D = 4, OUT = 5, TARGET = 6;
+    private static final int MAX_STACK = 6, MAX_LOCALS = 7;
+    // Operands of comp() that are not locals
+    private static final int MEMORY = -1, CONSTANT_0 = -2, CONSTANT_1 = -3, CONSTANT_M1 = -4;
+
+    /** Returns true if every instruction of program[start..start+length) can be compiled */
+    static boolean canCompile(int[] program, int start, int length) {
+        for (int pc = start; pc < start + length; pc += 1) {
+            if (program[pc] < 0 && (program[pc] & 0xFF) == OTHER) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Compiles program[start..start+length) and returns an instance of the generated class */
+    static Jit.Block compile(int[] program, int start, int length) {
+        try {
+            byte[] bytes = classFile(code(program, start, length));
+            Class<?> blockClass = LOOKUP.defineHiddenClass(bytes, true).lookupClass();
+            return (Jit.Block) blockClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load compiled block at " + start, e);
+        }
+    }
+
+    /* Bytecode of run(): returns the address of the next instruction to execute */
+    private static byte[] code(int[] program, int start, int length) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        // A = registers[0]; D = registers[1]
+        code.write(ALOAD_2);
+        code.write(ICONST_0);
+        code.write(IALOAD);
+        store(code, LOCAL_A);
+        code.write(ALOAD_2);
+        code.write(ICONST_1);
+        code.write(IALOAD);
+        store(code, LOCAL_D);
+
+        int end = start + length;
+        for (int pc = start; pc < end; pc += 1) {
+            int op = program[pc];
+            if (op >= 0) { // A instruction
+                sipush(code, op);
+                store(code, LOCAL_A);
+                continue;
+            }
+            comp(code, op & 0xFF);
+            code.write(I2S);
+            store(code, OUT);
+            if ((op & 0x100) != 0) { // M, at the address held by A before this instruction
+                code.write(ALOAD_1);
+                address(code);
+                load(code, OUT);
+                code.write(SASTORE);
+            }
+            int jump = (op >> 11) & 7;
+            if (jump != 0) {
+                address(code);
+                store(code, TARGET);
+            }
+            if ((op & 0x200) != 0) {
+                load(code, OUT);
+                store(code, LOCAL_D);
+            }
+            if ((op & 0x400) != 0) {
+                load(code, OUT);
+                store(code, LOCAL_A);
+            }
+            if (jump != 0) { // a jump can only be the last instruction of a block
+                storeRegisters(code);
+                if (jump != 7) {
+                    load(code, OUT);
+                    code.write(switch (jump) {
+                        case 1 -> IFGT;
+                        case 2 -> IFEQ;
+                        case 3 -> IFGE;
+                        case 4 -> IFLT;
+                        case 5 -> IFNE;
+                        default -> IFLE;
+                    });
+                    code.write(0);
+                    code.write(7); // branch over the next 3 + 1 bytes
+                    sipush(code, (pc + 1) & 0x7FFF);
+                    code.write(IRETURN);
+                }
+                load(code, TARGET);
+                code.write(IRETURN);
+                return code.toByteArray();
+            }
+        }
+        storeRegisters(code);
+        sipush(code, end & 0x7FFF);
+        code.write(IRETURN);
+        return code.toByteArray();
+    }
+
+    /* Pushes the comp function's value; operands are sign-extended 16-bit values */
+    private static void comp(ByteArrayOutputStream code, int comp) {
+        switch (comp) {
+            case ZERO -> code.write(ICONST_0);
+            case ONE -> code.write(ICONST_1);
+            case MINUS_ONE -> code.write(ICONST_M1);
+            case D -> operand(code, LOCAL_D);
+            case A -> operand(code, LOCAL_A);
+            case M -> operand(code, MEMORY);
+            case NOT_D -> operation(code, LOCAL_D, CONSTANT_M1, IXOR);
+            case NOT_A -> operation(code, LOCAL_A, CONSTANT_M1, IXOR);
+            case NOT_M -> operation(code, MEMORY, CONSTANT_M1, IXOR);
+            case NEG_D -> operation(code, CONSTANT_0, LOCAL_D, ISUB);
+            case NEG_A -> operation(code, CONSTANT_0, LOCAL_A, ISUB);
+            case NEG_M -> operation(code, CONSTANT_0, MEMORY, ISUB);
+            case D_PLUS_1 -> operation(code, LOCAL_D, CONSTANT_1, IADD);
+            case A_PLUS_1 -> operation(code, LOCAL_A, CONSTANT_1, IADD);
+            case M_PLUS_1 -> operation(code, MEMORY, CONSTANT_1, IADD);
+            case D_MINUS_1 -> operation(code, LOCAL_D, CONSTANT_1, ISUB);
+            case A_MINUS_1 -> operation(code, LOCAL_A, CONSTANT_1, ISUB);
+            case M_MINUS_1 -> operation(code, MEMORY, CONSTANT_1, ISUB);
+            case D_PLUS_A -> operation(code, LOCAL_D, LOCAL_A, IADD);
+            case D_PLUS_M -> operation(code, LOCAL_D, MEMORY, IADD);
+            case D_MINUS_A -> operation(code, LOCAL_D, LOCAL_A, ISUB);
+            case D_MINUS_M -> operation(code, LOCAL_D, MEMORY, ISUB);
+            case A_MINUS_D -> operation(code, LOCAL_A, LOCAL_D, ISUB);
+            case M_MINUS_D -> operation(code, MEMORY, LOCAL_D, ISUB);
+            case D_AND_A -> operation(code, LOCAL_D, LOCAL_A, IAND);
+            case D_AND_M -> operation(code, LOCAL_D, MEMORY, IAND);
+            case D_OR_A -> operation(code, LOCAL_D, LOCAL_A, IOR);
+            case D_OR_M -> operation(code, LOCAL_D, MEMORY, IOR);
+            default -> throw new IllegalArgumentException("Comp " + comp + " has no compiled form");
+        }
+    }
+
+    /* Pushes x, then y, then applies the binary opcode */
+    private static void operation(ByteArrayOutputStream code, int x, int y, int opcode) {
+        operand(code, x);
+        operand(code, y);
+        code.write(opcode);
+    }
+
+    /* Pushes a local, M, or one of the constants 0, 1, -1 */
+    private static void operand(ByteArrayOutputStream code, int operand) {
+        switch (operand) {
+            case MEMORY -> {
+                code.write(ALOAD_1);
+                address(code);
+                code.write(SALOAD);
+            }
+            case CONSTANT_0 -> code.write(ICONST_0);
+            case CONSTANT_1 -> code.write(ICONST_1);
+            case CONSTANT_M1 -> code.write(ICONST_M1);
+            default -> load(code, operand);
+        }
+    }
+
+    /* Pushes A & 0x7FFF */
+    private static void address(ByteArrayOutputStream code) {
+        load(code, LOCAL_A);
+        sipush(code, 0x7FFF);
+        code.write(IAND);
+    }
+
+    /* registers[0] = A; registers[1] = D */
+    private static void storeRegisters(ByteArrayOutputStream code) {
+        code.write(ALOAD_2);
+        code.write(ICONST_0);
+        load(code, LOCAL_A);
+        code.write(IASTORE);
+        code.write(ALOAD_2);
+        code.write(ICONST_1);
+        load(code, LOCAL_D);
+        code.write(IASTORE);
+    }
+
+    private static void load(ByteArrayOutputStream code, int local) {
+        code.write(ILOAD);
+        code.write(local);
+    }
+
+    private static void store(ByteArrayOutputStream code, int local) {
+        code.write(ISTORE);
+        code.write(local);
+    }
+
+    private static void sipush(ByteArrayOutputStream code, int value) {
+        code.write(SIPUSH);
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    /* A final class implementing Jit.Block with a no-arg constructor and run() */
+    private static byte[] classFile(byte[] runCode) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);  // minor version
+            out.writeShort(49); // major version
+
+            out.writeShort(CONSTANT_POOL_COUNT);
+            utf8(out, "hackemulator/CompiledBlock");  // 1
+            classRef(out, 1);                         // 2 THIS_CLASS
+            utf8(out, "java/lang/Object");            // 3
+            classRef(out, 3);                         // 4 OBJECT_CLASS
+            utf8(out, "hackemulator/Jit$Block");      // 5
+            classRef(out, 5);                         // 6 BLOCK_INTERFACE
+            utf8(out, "<init>");                      // 7 INIT_NAME
+            utf8(out, "()V");                         // 8 VOID_DESCRIPTOR
+            out.writeByte(12);                        // 9 NameAndType <init>()V
+            out.writeShort(INIT_NAME);
+            out.writeShort(VOID_DESCRIPTOR);
+            out.writeByte(10);                        // 10 OBJECT_INIT Methodref Object.<init>()V
+            out.writeShort(OBJECT_CLASS);
+            out.writeShort(9);
+            utf8(out, "run");                         // 11 RUN_NAME
+            utf8(out, "([S[I)I");                     // 12 RUN_DESCRIPTOR
+            utf8(out, "Code");                        // 13 CODE
+
+            out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+            out.writeShort(THIS_CLASS);
+            out.writeShort(OBJECT_CLASS);
+            out.writeShort(1);
+            out.writeShort(BLOCK_INTERFACE);
+            out.writeShort(0); // fields
+
+            out.writeShort(2); // methods
+            byte[] initCode = {ALOAD_0, (byte) INVOKESPECIAL, 0, OBJECT_INIT, (byte) RETURN};
+            method(out, INIT_NAME, VOID_DESCRIPTOR, 1, 1, initCode);
+            method(out, RUN_NAME, RUN_DESCRIPTOR, MAX_STACK, MAX_LOCALS, runCode);
+
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown by ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void method(DataOutputStream out, int name, int descriptor, int maxStack, int maxLocals,
+                               byte[] code) throws IOException {
+        out.writeShort(0x0001); // ACC_PUBLIC
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(CODE);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+    }
+
+    private static void utf8(DataOutputStream out, String s) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(s);
+    }
+
+    private static void classRef(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+}
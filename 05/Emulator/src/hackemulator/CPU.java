@@ -0,0 +1,244 @@
+package hackemulator;
+
+import java.util.Arrays;
+
+/*
+The Hack computer: CPU, a 32K-word ROM and a flat 32K-word data memory holding RAM (0-16383),
+the screen memory map (16384-24575) and the keyboard register (24576).
+Every ROM word is decoded once when the program is loaded, using a table built for all 2^16
+instruction words, so the execute loop only dispatches on precomputed fields.
+ */
+public class CPU {
+    public static final int ROM_SIZE = 32768;
+    public static final int RAM_SIZE = 32768;
+    public static final int SCREEN = 16384;
+    public static final int KBD = 24576;
+    private static final int ADDRESS_MASK = 0x7FFF;
+
+    /*
+    A decoded C instruction has bit 31 set. Bits 0..7 select the comp function, bits 8..10 hold
+    the dest bits (A, D, M from high to low) and bits 11..13 the jump bits (lt, eq, gt from high
+    to low). Bits 16..22 keep the raw a-bit and c-bits for comps without a dedicated case.
+    A decoded A instruction is just the 15-bit value it loads.
+     */
+    static final int C_FLAG = 0x80000000;
+    static final int ZERO = 0, ONE = 1, MINUS_ONE = 2, D = 3, A = 4, M = 5, NOT_D = 6, NOT_A = 7,
+            NOT_M = 8, NEG_D = 9, NEG_A = 10, NEG_M = 11, D_PLUS_1 = 12, A_PLUS_1 = 13, M_PLUS_1 = 14,
+            D_MINUS_1 = 15, A_MINUS_1 = 16, M_MINUS_1 = 17, D_PLUS_A = 18, D_PLUS_M = 19, D_MINUS_A = 20,
+            D_MINUS_M = 21, A_MINUS_D = 22, M_MINUS_D = 23, D_AND_A = 24, D_AND_M = 25, D_OR_A = 26,
+            D_OR_M = 27, OTHER = 28;
+    private static final int[] DECODE = new int[65536];
+    static {
+        int[] compToOp = new int[128];
+        Arrays.fill(compToOp, OTHER);
+        int[][] comps = {
+                {0b0101010, ZERO}, {0b0111111, ONE}, {0b0111010, MINUS_ONE}, {0b0001100, D}, {0b0110000, A},
+                {0b1110000, M}, {0b0001101, NOT_D}, {0b0110001, NOT_A}, {0b1110001, NOT_M}, {0b0001111, NEG_D},
+                {0b0110011, NEG_A}, {0b1110011, NEG_M}, {0b0011111, D_PLUS_1}, {0b0110111, A_PLUS_1},
+                {0b1110111, M_PLUS_1}, {0b0001110, D_MINUS_1}, {0b0110010, A_MINUS_1}, {0b1110010, M_MINUS_1},
+                {0b0000010, D_PLUS_A}, {0b1000010, D_PLUS_M}, {0b0010011, D_MINUS_A}, {0b1010011, D_MINUS_M},
+                {0b0000111, A_MINUS_D}, {0b1000111, M_MINUS_D}, {0b0000000, D_AND_A}, {0b1000000, D_AND_M},
+                {0b0010101, D_OR_A}, {0b1010101, D_OR_M}
+        };
+        for (int[] comp : comps) {
+            compToOp[comp[0]] = comp[1];
+        }
+        for (int word = 0; word < 65536; word += 1) {
+            if ((word & 0x8000) == 0) {
+                DECODE[word] = word;
+            } else {
+                int comp = (word >> 6) & 0x7F;
+                DECODE[word] = C_FLAG | compToOp[comp] | ((word >> 3) & 7) << 8 | (word & 7) << 11 | comp << 16;
+            }
+        }
+    }
+
+    private final int[] program = new int[ROM_SIZE]; // decoded ROM
+    private final short[] ram = new short[RAM_SIZE];
+    private int a, d, pc;
+    private long cycles;
+    private boolean halted;
+
+    public CPU(short[] rom) {
+        load(rom);
+    }
+
+    /** Replaces the ROM contents with rom, zero filling the rest, and decodes every word */
+    public void load(short[] rom) {
+        if (rom.length > ROM_SIZE) {
+            throw new IllegalArgumentException("Program has " + rom.length + " words, ROM holds " + ROM_SIZE);
+        }
+        for (int i = 0; i < ROM_SIZE; i += 1) {
+            program[i] = DECODE[(i < rom.length) ? rom[i] & 0xFFFF : 0];
+        }
+        halted = false;
+    }
+
+    /** Executes exactly n instructions */
+    public void run(long n) {
+        execute(n, false);
+    }
+
+    /**
+     * Executes up to max instructions, stopping early once the program reaches the conventional
+     * (END) @END 0;JMP infinite loop. Returns the number of instructions executed.
+     */
+    public long runUntilHalt(long max) {
+        return execute(max, true);
+    }
+
+    /** Executes one instruction with the reset pin set: the instruction completes but PC becomes 0 */
+    public void reset() {
+        execute(1, false);
+        pc = 0;
+    }
+
+    private long execute(long n, boolean stopAtHalt) {
+        final int[] program = this.program;
+        final short[] ram = this.ram;
+        int a = this.a, d = this.d, pc = this.pc;
+        long i = 0;
+
+        while (i < n) {
+            int op = program[pc];
+            i += 1;
+            if (op >= 0) { // A instruction
+                a = op;
+                pc = (pc + 1) & ADDRESS_MASK;
+                continue;
+            }
+            int address = a & ADDRESS_MASK;
+            int out = switch (op & 0xFF) {
+                case ZERO -> 0;
+                case ONE -> 1;
+                case MINUS_ONE -> -1;
+                case D -> d;
+                case A -> a;
+                case M -> ram[address];
+                case NOT_D -> ~d;
+                case NOT_A -> ~a;
+                case NOT_M -> ~ram[address];
+                case NEG_D -> -d;
+                case NEG_A -> -a;
+                case NEG_M -> -ram[address];
+                case D_PLUS_1 -> d + 1;
+                case A_PLUS_1 -> a + 1;
+                case M_PLUS_1 -> ram[address] + 1;
+                case D_MINUS_1 -> d - 1;
+                case A_MINUS_1 -> a - 1;
+                case M_MINUS_1 -> ram[address] - 1;
+                case D_PLUS_A -> d + a;
+                case D_PLUS_M -> d + ram[address];
+                case D_MINUS_A -> d - a;
+                case D_MINUS_M -> d - ram[address];
+                case A_MINUS_D -> a - d;
+                case M_MINUS_D -> ram[address] - d;
+                case D_AND_A -> d & a;
+                case D_AND_M -> d & ram[address];
+                case D_OR_A -> d | a;
+                case D_OR_M -> d | ram[address];
+                default -> alu((op >> 16) & 0x7F, d, a, ram[address]);
+            };
+            out = (short) out;
+
+            // M is written at the address held by A before this instruction updates it
+            if ((op & 0x100) != 0) {
+                ram[address] = (short) out;
+            }
+            if ((op & 0x200) != 0) {
+                d = out;
+            }
+            if ((op & 0x400) != 0) {
+                a = out;
+            }
+            int jump = (op >> 11) & 7;
+            if (jump != 0 && (jump & (out < 0 ? 4 : out == 0 ? 2 : 1)) != 0) {
+                if (stopAtHalt && address == pc - 1 && program[address] == address) {
+                    pc = address;
+                    halted = true;
+                    break;
+                }
+                pc = address;
+            } else {
+                pc = (pc + 1) & ADDRESS_MASK;
+            }
+        }
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        cycles += i;
+        return i;
+    }
+
+    /*
+    The Hack ALU for any comp bits: a selects A or M as y, then zx nx zy ny f no.
+     */
+    private static int alu(int comp, int d, int a, int m) {
+        int x = d;
+        int y = ((comp & 0x40) != 0) ? m : a;
+        if ((comp & 0x20) != 0) x = 0;
+        if ((comp & 0x10) != 0) x = ~x;
+        if ((comp & 0x08) != 0) y = 0;
+        if ((comp & 0x04) != 0) y = ~y;
+        int out = ((comp & 0x02) != 0) ? x + y : x & y;
+        if ((comp & 0x01) != 0) out = ~out;
+        return out;
+    }
+
+    /** Counts instructions executed outside of execute(), i.e., by compiled blocks */
+    void addCycles(long n) {
+        cycles += n;
+    }
+
+    /** The decoded ROM, one entry per word in the format of DECODE */
+    int[] program() {
+        return program;
+    }
+
+    public short peek(int address) {
+        return ram[address];
+    }
+
+    public void poke(int address, int value) {
+        ram[address] = (short) value;
+    }
+
+    /** The data memory, including the screen and keyboard memory maps */
+    public short[] ram() {
+        return ram;
+    }
+
+    public int a() {
+        return a;
+    }
+
+    public int d() {
+        return d;
+    }
+
+    public int pc() {
+        return pc;
+    }
+
+    /** True once runUntilHalt() has stopped at the final infinite loop */
+    public boolean halted() {
+        return halted;
+    }
+
+    /** Total number of instructions executed since construction */
+    public long cycles() {
+        return cycles;
+    }
+
+    public void setA(int value) {
+        a = (short) value;
+    }
+
+    public void setD(int value) {
+        d = (short) value;
+    }
+
+    public void setPC(int value) {
+        pc = value & ADDRESS_MASK;
+    }
+}
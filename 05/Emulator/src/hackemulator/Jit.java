@@ -0,0 +1,126 @@
+package hackemulator;
+
+/*
+Runs a CPU's program by basic blocks, compiling blocks that are entered often into JVM bytecode.
+A block starts at address 0, after a jump instruction, or at the @target loaded just before a
+jump, and ends with a jump instruction or before the next block start. Jumps to any other
+address, such as the computed return addresses of A=M;JMP, are interpreted one instruction at a
+time until a block start is reached; so are blocks that are cold or cannot be compiled.
+ */
+public class Jit {
+    /** A compiled block: runs it against ram and registers {A, D}, and returns the next address */
+    interface Block {
+        int run(short[] ram, int[] registers);
+    }
+
+    private static final int HOT_THRESHOLD = 100;
+    private static final int MAX_BLOCK_LENGTH = 1000; // keeps each run() well under the 64K code limit
+
+    private final CPU cpu;
+    private final int[] blockLength = new int[CPU.ROM_SIZE]; // 0 if the address does not start a block
+    private final boolean[] halts = new boolean[CPU.ROM_SIZE]; // block is an @X; X: 0;JMP loop
+    private final boolean[] compilable = new boolean[CPU.ROM_SIZE];
+    private final int[] entries = new int[CPU.ROM_SIZE];
+    private final Block[] compiled = new Block[CPU.ROM_SIZE];
+    private final int[] registers = new int[2];
+    private int compiledBlocks = 0;
+
+    public Jit(CPU cpu) {
+        this.cpu = cpu;
+        findBlocks(cpu.program());
+    }
+
+    private void findBlocks(int[] program) {
+        boolean[] leader = new boolean[CPU.ROM_SIZE];
+        leader[0] = true;
+        for (int pc = 0; pc < CPU.ROM_SIZE; pc += 1) {
+            if (isJump(program[pc])) {
+                if (pc + 1 < CPU.ROM_SIZE) {
+                    leader[pc + 1] = true;
+                }
+                if (pc > 0 && program[pc - 1] >= 0) { // @target immediately before the jump
+                    leader[program[pc - 1]] = true;
+                }
+            }
+        }
+        int pc = 0;
+        while (pc < CPU.ROM_SIZE) {
+            int start = pc;
+            do {
+                pc += 1;
+            } while (pc < CPU.ROM_SIZE && !leader[pc] && !isJump(program[pc - 1])
+                    && pc - start < MAX_BLOCK_LENGTH);
+            int length = pc - start;
+            blockLength[start] = length;
+            halts[start] = length == 2 && program[start] == start && (program[start + 1] >> 11 & 7) == 7;
+            compilable[start] = !halts[start] && BlockCompiler.canCompile(program, start, length);
+        }
+    }
+
+    private static boolean isJump(int op) {
+        return op < 0 && (op >> 11 & 7) != 0;
+    }
+
+    /** Executes exactly n instructions */
+    public void run(long n) {
+        execute(n, false);
+    }
+
+    /** Executes up to max instructions, stopping early at an (END) @END 0;JMP loop. Returns the count. */
+    public long runUntilHalt(long max) {
+        return execute(max, true);
+    }
+
+    /** Number of blocks compiled so far */
+    public int compiledBlocks() {
+        return compiledBlocks;
+    }
+
+    private long execute(long n, boolean stopAtHalt) {
+        short[] ram = cpu.ram();
+        long executed = 0;
+        long executedCompiled = 0;
+        while (executed < n) {
+            int pc = cpu.pc();
+            int length = blockLength[pc];
+            if (length == 0) { // entered the middle of a block
+                cpu.run(1);
+                executed += 1;
+                continue;
+            }
+            if (stopAtHalt && halts[pc]) {
+                break;
+            }
+            if (executed + length > n) {
+                cpu.run(n - executed);
+                executed = n;
+                break;
+            }
+            Block block = compiled[pc];
+            if (block == null) {
+                if (compilable[pc] && ++entries[pc] == HOT_THRESHOLD) {
+                    compiled[pc] = BlockCompiler.compile(cpu.program(), pc, length);
+                    compiledBlocks += 1;
+                }
+                cpu.run(length);
+                executed += length;
+                continue;
+            }
+            // Chain compiled blocks with A and D kept in the registers array
+            registers[0] = cpu.a();
+            registers[1] = cpu.d();
+            do {
+                pc = block.run(ram, registers);
+                executed += length;
+                executedCompiled += length;
+                block = compiled[pc];
+                length = blockLength[pc];
+            } while (block != null && executed + length <= n);
+            cpu.setA(registers[0]);
+            cpu.setD(registers[1]);
+            cpu.setPC(pc);
+        }
+        cpu.addCycles(executedCompiled);
+        return executed;
+    }
+}
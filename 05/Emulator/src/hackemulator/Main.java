@@ -0,0 +1,60 @@
+package hackemulator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class Main {
+    private static final long DEFAULT_CYCLES = 100_000_000L;
+    private static final int PROFILE_TOP = 20;
+
+    public static void main(String[] args) throws IOException {
+        /*
+        Each .tst arg is run as a CPU emulator test script and compared against its compare-to file.
+        Any other arg is a .hack, .bin or .asm program that is run headless until it reaches its
+        final infinite loop, or for --cycles N instructions (default 100M), then reports speed.
+        --jit compiles hot basic blocks of the following programs to JVM bytecode.
+        --profile runs the following .asm programs in the Profiler instead, prints the functions that
+        take the most cycles and writes the call stacks to X.folded next to X.asm.
+        */
+        if (args.length == 0) {
+            System.out.println("Must have at least one .tst script or program.");
+            return;
+        }
+        long cycles = DEFAULT_CYCLES;
+        boolean failed = false;
+        boolean jit = false;
+        boolean profile = false;
+        for (int i = 0; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.equals("--cycles")) {
+                i += 1;
+                cycles = Long.parseLong(args[i]);
+            } else if (arg.equals("--jit")) {
+                jit = true;
+            } else if (arg.equals("--profile")) {
+                profile = true;
+            } else if (arg.endsWith(".tst")) {
+                String failure = new TestScript(Path.of(arg)).run();
+                System.out.println(arg + ": " + ((failure == null) ? "comparison ended successfully" : failure));
+                failed |= failure != null;
+            } else if (profile) {
+                Profiler profiler = Profiler.load(Path.of(arg));
+                long executed = profiler.run(cycles);
+                Path folded = Path.of(arg.substring(0, arg.length() - 4) + ".folded");
+                profiler.writeCollapsed(folded);
+                System.out.println(arg + ": " + executed + " cycles, call stacks in " + folded);
+                profiler.report(System.out, PROFILE_TOP);
+            } else {
+                CPU cpu = new CPU(Rom.load(Path.of(arg)));
+                long begin = System.nanoTime();
+                long executed = jit ? new Jit(cpu).runUntilHalt(cycles) : cpu.runUntilHalt(cycles);
+                long nanos = System.nanoTime() - begin;
+                System.out.printf("%s: %d instructions in %.1f ms, %.1f MIPS%n",
+                        arg, executed, nanos / 1e6, executed / 1e3 / (nanos / 1e6));
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package hackemulator;
+
+import hackassembler.Parser;
+import hackassembler.WordSink;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+Runs a program one instruction at a time and counts the instructions executed at each ROM address,
+one per cycle. The labels of the assembler's symbol table split the ROM into functions: a label
+starts a function unless it contains a '$', which the VM translator puts in its jump and return
+labels but not in function names, or it starts with "$$" like the shared call routines.
+Call stacks are rebuilt from the VM frame layout: the caller of the function whose frame starts at
+LCL continues at the return address RAM[LCL - 5], in the frame starting at RAM[LCL - 4]. Each
+instruction is charged to the call stack it ran in, which is written in the collapsed stack format
+of flame graphs, one "outer;...;inner cycles" line per stack.
+ */
+public class Profiler {
+    private static final String TOP = "(top)"; // code before the first function label
+    private static final int LCL = 1;
+    private static final int MAX_DEPTH = 512;
+
+    private final CPU cpu;
+    private final int[] function = new int[CPU.ROM_SIZE];  // index in names of the function of each address
+    private final List<String> names = new ArrayList<>();
+    private final long[] counts = new long[CPU.ROM_SIZE];
+    private final Map<String, Long> stacks = new HashMap<>();
+
+    public Profiler(short[] rom, Map<String, Integer> labels) {
+        this.cpu = new CPU(rom);
+        String[] starts = new String[CPU.ROM_SIZE];
+        for (Map.Entry<String, Integer> label : labels.entrySet()) {
+            String name = label.getKey();
+            if ((!name.contains("$") || name.startsWith("$$")) && label.getValue() < CPU.ROM_SIZE) {
+                starts[label.getValue()] = name;
+            }
+        }
+        names.add(TOP);
+        int current = 0;
+        for (int address = 0; address < CPU.ROM_SIZE; address += 1) {
+            if (starts[address] != null) {
+                names.add(starts[address]);
+                current = names.size() - 1;
+            }
+            function[address] = current;
+        }
+    }
+
+    /** Assembles a .asm program, keeping its labels */
+    public static Profiler load(Path file) throws IOException {
+        if (!file.getFileName().toString().endsWith(".asm")) {
+            throw new IllegalArgumentException("Profiling needs the .asm source for its labels: " + file);
+        }
+        WordSink.Memory sink = new WordSink.Memory();
+        Parser parser = new Parser(Files.newBufferedReader(file), sink);
+        parser.assembleOnePass();
+        return new Profiler(sink.toArray(), parser.labels());
+    }
+
+    /**
+     * Executes up to max instructions, stopping early at the program's final infinite loop like
+     * CPU.runUntilHalt(). Returns the number of instructions executed.
+     */
+    public long run(long max) {
+        short[] ram = cpu.ram();
+        long executed = 0;
+        int lastFunction = -1, lastFrame = -1;
+        String stack = null;
+        long stackCycles = 0;
+        while (executed < max && !cpu.halted()) {
+            int pc = cpu.pc();
+            // A call or a return moves LCL, a jump into another function changes the function
+            if (function[pc] != lastFunction || ram[LCL] != lastFrame) {
+                if (stack != null) {
+                    stacks.merge(stack, stackCycles, Long::sum);
+                }
+                lastFunction = function[pc];
+                lastFrame = ram[LCL];
+                stack = stackAt(pc);
+                stackCycles = 0;
+            }
+            cpu.runUntilHalt(1);
+            counts[pc] += 1;
+            stackCycles += 1;
+            executed += 1;
+        }
+        if (stack != null) {
+            stacks.merge(stack, stackCycles, Long::sum);
+        }
+        return executed;
+    }
+
+    /*
+    The call stack of the instruction at pc, outermost function first, separated by ';'. The walk
+    stops at the first frame whose saved values are not a return address in ROM and an earlier frame.
+    */
+    private String stackAt(int pc) {
+        short[] ram = cpu.ram();
+        List<String> frames = new ArrayList<>();
+        frames.add(names.get(function[pc]));
+        int frame = ram[LCL];
+        while (frames.size() < MAX_DEPTH && frame >= 5) {
+            int returnAddress = ram[frame - 5];
+            int callerFrame = ram[frame - 4];
+            if (returnAddress <= 0 || callerFrame >= frame || callerFrame < 0) {
+                break;
+            }
+            frames.add(names.get(function[returnAddress]));
+            frame = callerFrame;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = frames.size() - 1; i >= 0; i -= 1) {
+            builder.append(frames.get(i));
+            if (i > 0) {
+                builder.append(';');
+            }
+        }
+        return builder.toString();
+    }
+
+    /** Instructions executed at each ROM address */
+    public long[] counts() {
+        return counts;
+    }
+
+    /** Cycles of each call stack, keyed by its collapsed form */
+    public Map<String, Long> stacks() {
+        return stacks;
+    }
+
+    /** Writes the call stacks in the collapsed stack format, for flame graph tools */
+    public void writeCollapsed(Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (Map.Entry<String, Long> stack : new TreeMap<>(stacks).entrySet()) {
+                writer.println(stack.getKey() + " " + stack.getValue());
+            }
+        }
+    }
+
+    /**
+     * Prints the top functions by self cycles, those spent in their own code, with their total
+     * cycles, which include the functions they call.
+     */
+    public void report(PrintStream out, int top) {
+        long[] self = new long[names.size()];
+        long executed = 0;
+        for (int address = 0; address < CPU.ROM_SIZE; address += 1) {
+            self[function[address]] += counts[address];
+            executed += counts[address];
+        }
+        Map<String, Long> total = new HashMap<>();
+        for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+            // A recursive function is counted once per stack
+            Set<String> seen = new HashSet<>(List.of(stack.getKey().split(";")));
+            for (String name : seen) {
+                total.merge(name, stack.getValue(), Long::sum);
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            if (self[i] > 0) {
+                order.add(i);
+            }
+        }
+        order.sort((x, y) -> Long.compare(self[y], self[x]));
+        out.printf("%7s %12s %12s  %s%n", "self%", "self", "total", "function");
+        for (int i : order.subList(0, Math.min(top, order.size()))) {
+            out.printf("%6.2f%% %12d %12d  %s%n", 100.0 * self[i] / Math.max(executed, 1), self[i],
+                    total.getOrDefault(names.get(i), 0L), names.get(i));
+        }
+    }
+}
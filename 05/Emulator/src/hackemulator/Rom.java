@@ -0,0 +1,72 @@
+package hackemulator;
+
+import hackassembler.HackAssembler;
+import hackassembler.WordSink;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+Loads a program image for the CPU from .hack text, packed big-endian .bin, or .asm source,
+which is assembled in memory.
+ */
+public class Rom {
+    public static short[] load(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".bin")) {
+            return loadBinary(file);
+        } else if (name.endsWith(".asm")) {
+            WordSink.Memory sink = new WordSink.Memory();
+            HackAssembler.assemble(Files.newBufferedReader(file), sink);
+            return sink.toArray();
+        }
+        return loadText(file);
+    }
+
+    /* One instruction per line, written as 16 binary digits */
+    private static short[] loadText(Path file) throws IOException {
+        short[] words = new short[1024];
+        int size = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.length() != 16) {
+                    throw new IllegalArgumentException("Expected 16 binary digits but found " + line);
+                }
+                int word = 0;
+                for (int i = 0; i < 16; i += 1) {
+                    char c = line.charAt(i);
+                    if (c != '0' && c != '1') {
+                        throw new IllegalArgumentException("Expected 16 binary digits but found " + line);
+                    }
+                    word = (word << 1) | (c - '0');
+                }
+                if (size == words.length) {
+                    words = Arrays.copyOf(words, size * 2);
+                }
+                words[size] = (short) word;
+                size += 1;
+            }
+        }
+        return Arrays.copyOf(words, size);
+    }
+
+    /* Packed big-endian 16-bit words */
+    private static short[] loadBinary(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length % 2 != 0) {
+            throw new IllegalArgumentException("Binary program has an odd number of bytes");
+        }
+        short[] words = new short[bytes.length / 2];
+        ByteBuffer.wrap(bytes).asShortBuffer().get(words);
+        return words;
+    }
+}
@@ -0,0 +1,372 @@
+package hackemulator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import vmrunner.Program;
+import vmrunner.VMRunner;
+
+/*
+Runs the CPU emulator test scripts (.tst) of the course headlessly: load, output-file, compare-to,
+output-list, set, repeat, tick, tock, ticktock, output and echo. Loading a .hdl file selects the
+built-in Hack computer, so the Computer*-external tests of chapter 05 run as well.
+Loading a .vm file, or a bare load of the script's directory, runs the VM emulator scripts (*VME.tst)
+on a VMRunner instead, with vmstep and the segment variables sp, local[i], argument[i], temp[i], etc.
+ */
+public class TestScript {
+    private record Command(List<String> words, List<Command> body) {}
+    private record Column(String variable, char format, int left, int width, int right) {}
+
+    private final Path script;
+    private final Path directory;
+    private CPU cpu = new CPU(new short[0]);
+    private VMRunner vm;    // null unless a VM program is loaded
+    private long time = 0;
+    private boolean afterTick = false;
+    private boolean reset = false;
+    private PrintWriter output;
+    private Path outputFile;
+    private Path compareFile;
+    private List<Column> outputList = new ArrayList<>();
+
+    public TestScript(Path script) {
+        this.script = script;
+        this.directory = script.toAbsolutePath().getParent();
+    }
+
+    /**
+     * Runs the script. Returns null if the output matches the compare-to file (or there is none),
+     * else a message describing the first mismatching line.
+     */
+    public String run() throws IOException {
+        List<String> tokens = tokenize(Files.readString(script));
+        int[] position = {0};
+        List<Command> commands = parse(tokens, position);
+        try {
+            execute(commands);
+        } finally {
+            if (output != null) {
+                output.close();
+            }
+        }
+        return compare();
+    }
+
+    public CPU cpu() {
+        return cpu;
+    }
+
+    /* RAM of the loaded machine, shared by the CPU and VM variables */
+    private short[] ram() {
+        return (vm != null) ? vm.ram() : cpu.ram();
+    }
+
+    /* Splits the script into words, quoted strings and the separators , ; { } with comments removed */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        int len = text.length();
+        while (i < len) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i += 1;
+            } else if (text.startsWith("//", i)) {
+                while (i < len && text.charAt(i) != '\n') {
+                    i += 1;
+                }
+            } else if (text.startsWith("/*", i)) {
+                int end = text.indexOf("*/", i + 2);
+                i = (end < 0) ? len : end + 2;
+            } else if (c == ',' || c == ';' || c == '{' || c == '}') {
+                tokens.add(String.valueOf(c));
+                i += 1;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated string in test script");
+                }
+                tokens.add(text.substring(i, end + 1));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < len && !Character.isWhitespace(text.charAt(i)) && ",;{}\"".indexOf(text.charAt(i)) < 0) {
+                    i += 1;
+                }
+                tokens.add(text.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /* Parses commands until the end of the tokens or a closing brace, which is consumed */
+    private static List<Command> parse(List<String> tokens, int[] position) {
+        List<Command> commands = new ArrayList<>();
+        List<String> words = new ArrayList<>();
+        while (position[0] < tokens.size()) {
+            String token = tokens.get(position[0]);
+            position[0] += 1;
+            switch (token) {
+                case ",", ";" -> {
+                    if (!words.isEmpty()) {
+                        commands.add(new Command(words, null));
+                        words = new ArrayList<>();
+                    }
+                }
+                case "{" -> {
+                    commands.add(new Command(words, parse(tokens, position)));
+                    words = new ArrayList<>();
+                }
+                case "}" -> {
+                    if (!words.isEmpty()) {
+                        commands.add(new Command(words, null));
+                    }
+                    return commands;
+                }
+                default -> words.add(token);
+            }
+        }
+        if (!words.isEmpty()) {
+            commands.add(new Command(words, null));
+        }
+        return commands;
+    }
+
+    private void execute(List<Command> commands) throws IOException {
+        for (Command command : commands) {
+            List<String> words = command.words();
+            if (command.body() != null) {
+                if (!words.get(0).equals("repeat") || words.size() != 2) {
+                    throw new IllegalArgumentException("Unsupported test script block: " + words);
+                }
+                repeat(Long.parseLong(words.get(1)), command.body());
+                continue;
+            }
+            // ROM32K load X is the hardware simulator's spelling of load X
+            if (words.get(0).equals("ROM32K")) {
+                words = words.subList(1, words.size());
+            }
+            switch (words.get(0)) {
+                case "load" -> load((words.size() > 1) ? words.get(1) : null);
+                case "output-file" -> {
+                    outputFile = directory.resolve(words.get(1));
+                    output = new PrintWriter(Files.newBufferedWriter(outputFile));
+                }
+                case "compare-to" -> compareFile = directory.resolve(words.get(1));
+                case "output-list" -> setOutputList(words.subList(1, words.size()));
+                case "set" -> set(words.get(1), parseValue(words.get(2)));
+                case "tick" -> tick();
+                case "tock" -> tock();
+                case "ticktock" -> {
+                    tick();
+                    tock();
+                }
+                case "vmstep" -> vmstep(1);
+                case "output" -> output();
+                case "echo" -> System.out.println(String.join(" ", words.subList(1, words.size())).replace("\"", ""));
+                case "clear-echo" -> {
+                }
+                default -> throw new IllegalArgumentException("Unsupported test script command: " + words);
+            }
+        }
+    }
+
+    private void repeat(long count, List<Command> body) throws IOException {
+        // The common repeat N { ticktock; } is run as one tight loop in the CPU
+        if (!reset && !afterTick && body.size() == 1 && body.get(0).body() == null
+                && body.get(0).words().equals(List.of("ticktock"))) {
+            cpu.run(count);
+            time += count;
+            return;
+        }
+        // Likewise repeat N { vmstep; }
+        if (body.size() == 1 && body.get(0).body() == null && body.get(0).words().equals(List.of("vmstep"))) {
+            vmstep(count);
+            return;
+        }
+        for (long i = 0; i < count; i += 1) {
+            execute(body);
+        }
+    }
+
+    /* A null file loads every .vm file of the script's directory */
+    private void load(String file) throws IOException {
+        if (file != null && file.endsWith(".hdl")) { // the built-in Hack computer
+            return;
+        }
+        if (file == null || file.endsWith(".vm")) {
+            vm = new VMRunner(Program.load((file == null) ? directory : directory.resolve(file)));
+            return;
+        }
+        vm = null;
+        cpu = new CPU(Rom.load(directory.resolve(file)));
+    }
+
+    private void vmstep(long count) {
+        if (vm == null) {
+            throw new IllegalStateException("vmstep needs a loaded VM program");
+        }
+        vm.run(count);
+        time += count;
+    }
+
+    private void tick() {
+        if (reset) {
+            cpu.reset();
+        } else {
+            cpu.run(1);
+        }
+        afterTick = true;
+    }
+
+    private void tock() {
+        time += 1;
+        afterTick = false;
+    }
+
+    private static int parseValue(String value) {
+        if (value.startsWith("%B")) {
+            return Integer.parseInt(value.substring(2), 2);
+        } else if (value.startsWith("%X")) {
+            return Integer.parseInt(value.substring(2), 16);
+        } else if (value.startsWith("%D")) {
+            return Integer.parseInt(value.substring(2));
+        }
+        return Integer.parseInt(value);
+    }
+
+    /* Splits a variable like RAM[12], PC[] or A into its name and index, -1 if there is none */
+    private static String nameOf(String variable) {
+        int bracket = variable.indexOf('[');
+        return (bracket < 0) ? variable : variable.substring(0, bracket);
+    }
+
+    private static int indexOf(String variable) {
+        int bracket = variable.indexOf('[');
+        if (bracket < 0 || variable.charAt(bracket + 1) == ']') {
+            return -1;
+        }
+        return Integer.parseInt(variable.substring(bracket + 1, variable.indexOf(']')));
+    }
+
+    private void set(String variable, int value) {
+        int index = indexOf(variable);
+        switch (nameOf(variable)) {
+            case "RAM", "RAM16K" -> ram()[index] = (short) value;
+            case "Screen" -> ram()[CPU.SCREEN + index] = (short) value;
+            case "Keyboard" -> ram()[CPU.KBD] = (short) value;
+            case "sp", "local", "argument", "this", "that", "temp", "pointer" ->
+                    ram()[segmentAddress(variable)] = (short) value;
+            case "A", "ARegister" -> cpu.setA(value);
+            case "D", "DRegister" -> cpu.setD(value);
+            case "PC" -> cpu.setPC(value);
+            case "reset" -> reset = value != 0;
+            default -> throw new IllegalArgumentException("Unknown variable: " + variable);
+        }
+    }
+
+    private int get(String variable) {
+        int index = indexOf(variable);
+        return switch (nameOf(variable)) {
+            case "RAM", "RAM16K" -> ram()[index];
+            case "Screen" -> ram()[CPU.SCREEN + index];
+            case "Keyboard" -> ram()[CPU.KBD];
+            case "sp", "local", "argument", "this", "that", "temp", "pointer" -> ram()[segmentAddress(variable)];
+            case "A", "ARegister" -> cpu.a();
+            case "D", "DRegister" -> cpu.d();
+            case "PC" -> cpu.pc();
+            case "reset" -> reset ? 1 : 0;
+            default -> throw new IllegalArgumentException("Unknown variable: " + variable);
+        };
+    }
+
+    /*
+     * RAM address of a VM variable: sp, local, argument, this and that without an index are the
+     * pointers in RAM[0..4]; with an index, they are the segment entries the pointers point to.
+     */
+    private int segmentAddress(String variable) {
+        int index = indexOf(variable);
+        short[] ram = ram();
+        return switch (nameOf(variable)) {
+            case "sp" -> 0;
+            case "local" -> (index < 0) ? 1 : ram[1] + index;
+            case "argument" -> (index < 0) ? 2 : ram[2] + index;
+            case "this" -> (index < 0) ? 3 : ram[3] + index;
+            case "that" -> (index < 0) ? 4 : ram[4] + index;
+            case "temp" -> 5 + index;
+            case "pointer" -> 3 + index;
+            default -> throw new IllegalArgumentException("Unknown variable: " + variable);
+        };
+    }
+
+    /* Columns are written as variable%Fl.w.r: format F, l spaces, w-wide value, r spaces */
+    private void setOutputList(List<String> columns) {
+        outputList = new ArrayList<>();
+        StringBuilder header = new StringBuilder("|");
+        for (String column : columns) {
+            int percent = column.indexOf('%');
+            String[] widths = column.substring(percent + 2).split("\\.");
+            Column c = new Column(column.substring(0, percent), column.charAt(percent + 1),
+                    Integer.parseInt(widths[0]), Integer.parseInt(widths[1]), Integer.parseInt(widths[2]));
+            outputList.add(c);
+
+            int total = c.left() + c.width() + c.right();
+            String name = (c.variable().length() > total) ? c.variable().substring(0, total) : c.variable();
+            int leftPad = (total - name.length()) / 2;
+            header.append(" ".repeat(leftPad)).append(name).append(" ".repeat(total - leftPad - name.length()));
+            header.append('|');
+        }
+        writeLine(header.toString());
+    }
+
+    private void output() {
+        StringBuilder row = new StringBuilder("|");
+        for (Column c : outputList) {
+            String value;
+            if (c.variable().equals("time")) {
+                value = time + (afterTick ? "+" : "");
+            } else {
+                int v = get(c.variable());
+                value = switch (c.format()) {
+                    case 'B' -> tail(String.format("%16s", Integer.toBinaryString(v & 0xFFFF)).replace(' ', '0'), c.width());
+                    case 'X' -> tail(String.format("%04X", v & 0xFFFF), c.width());
+                    default -> String.valueOf(v);
+                };
+            }
+            String cell = (c.format() == 'S')
+                    ? String.format("%-" + c.width() + "s", value)
+                    : String.format("%" + c.width() + "s", value);
+            row.append(" ".repeat(c.left())).append(cell).append(" ".repeat(c.right())).append('|');
+        }
+        writeLine(row.toString());
+    }
+
+    private static String tail(String s, int width) {
+        return (s.length() > width) ? s.substring(s.length() - width) : s;
+    }
+
+    private void writeLine(String line) {
+        if (output != null) {
+            output.println(line);
+        }
+    }
+
+    private String compare() throws IOException {
+        if (compareFile == null || outputFile == null) {
+            return null;
+        }
+        List<String> expected = Files.readAllLines(compareFile);
+        List<String> actual = Files.readAllLines(outputFile);
+        for (int i = 0; i < Math.max(expected.size(), actual.size()); i += 1) {
+            String e = (i < expected.size()) ? expected.get(i).strip() : "";
+            String a = (i < actual.size()) ? actual.get(i).strip() : "";
+            if (!e.equals(a)) {
+                return "Comparison failure at line " + (i + 1) + ": expected " + e + " but found " + a;
+            }
+        }
+        return null;
+    }
+}
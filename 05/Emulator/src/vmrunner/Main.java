@@ -0,0 +1,40 @@
+package vmrunner;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class Main {
+    private static final long DEFAULT_STEPS = 100_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        /*
+        Each arg is a .vm file, or a directory of .vm files, that is run directly as VM commands from
+        Sys.init (with the translator's bootstrap) until it reaches an infinite goto loop, or for
+        --steps N commands (default 100M), then reports speed. *VME.tst scripts are run by
+        hackemulator.Main.
+        */
+        if (args.length == 0) {
+            System.out.println("Must have at least one .vm file or directory.");
+            return;
+        }
+        long steps = DEFAULT_STEPS;
+        for (int i = 0; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.equals("--steps")) {
+                i += 1;
+                steps = Long.parseLong(args[i]);
+                continue;
+            }
+            Program program = Program.load(Path.of(arg));
+            VMRunner vm = new VMRunner(program);
+            if (program.functionAddress("Sys.init") >= 0) {
+                vm.bootstrap();
+            }
+            long begin = System.nanoTime();
+            long executed = vm.runUntilHalt(steps);
+            long nanos = System.nanoTime() - begin;
+            System.out.printf("%s: %d commands in %.1f ms, %.1f M commands/s%n",
+                    arg, executed, nanos / 1e6, executed / 1e3 / (nanos / 1e6));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package vmrunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+A set of .vm files parsed into a compact int-array bytecode. Every command takes STRIDE ints:
+an opcode and two operands. Segments are resolved as far as possible at load time: temp, pointer
+and static become absolute RAM addresses, labels and functions become command indices. Labels
+emit no command of their own, like in the VM emulator, so they take no steps.
+ */
+public class Program {
+    static final int STRIDE = 3;
+
+    // Opcodes
+    static final int PUSH_CONSTANT = 0;  // value
+    static final int PUSH_DIRECT = 1;    // address
+    static final int PUSH_INDIRECT = 2;  // base register (LCL, ARG, THIS, THAT), offset
+    static final int POP_DIRECT = 3;     // address
+    static final int POP_INDIRECT = 4;   // base register, offset
+    static final int ADD = 5, SUB = 6, NEG = 7, EQ = 8, GT = 9, LT = 10, AND = 11, OR = 12, NOT = 13;
+    static final int GOTO = 14;          // target
+    static final int IF_GOTO = 15;       // target
+    static final int FUNCTION = 16;      // nVars
+    static final int CALL = 17;          // target, nArgs
+    static final int RETURN = 18;
+
+    static final int SP = 0, LCL = 1, ARG = 2, THIS = 3, THAT = 4;
+    private static final int TEMP = 5, STATIC = 16, STATIC_END = 256;
+    // Return addresses are stored in 16-bit RAM words, including the one past the last command
+    // that bootstrap() returns from Sys.init to
+    private static final int MAX_COMMANDS = 65535;
+
+    private int[] code = new int[STRIDE * 1024];
+    private int size = 0;
+    private final Map<String, Integer> functions = new HashMap<>();
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final Map<String, Integer> statics = new HashMap<>();
+    // Forward references: command index whose first operand is a label or function name
+    private final List<Integer> fixupCommands = new ArrayList<>();
+    private final List<String> fixupNames = new ArrayList<>();
+    private final List<Boolean> fixupIsFunction = new ArrayList<>();
+
+    /**
+     * Loads a .vm file, or every .vm file of a directory, and resolves labels and functions.
+     */
+    public static Program load(Path source) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            File[] vmFiles = source.toFile().listFiles((dir, name) -> name.toLowerCase().endsWith(".vm"));
+            if (vmFiles == null) {
+                throw new IOException("Cannot list " + source);
+            }
+            Arrays.sort(vmFiles);
+            for (File file : vmFiles) {
+                files.add(file.toPath());
+            }
+        } else {
+            files.add(source);
+        }
+        Program program = new Program();
+        for (Path file : files) {
+            program.parse(file);
+        }
+        program.link();
+        return program;
+    }
+
+    /* Appends the commands of one .vm file; statics are named after the file */
+    private void parse(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        String className = fileName.substring(0, fileName.length() - 3);
+        String currFunction = null;
+
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf("//");
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] words = line.split("\\s+");
+                switch (words[0]) {
+                    case "push", "pop" -> {
+                        boolean push = words[0].equals("push");
+                        int index = Integer.parseInt(words[2]);
+                        switch (words[1]) {
+                            case "constant" -> {
+                                if (!push) {
+                                    throw new IllegalArgumentException("Cannot pop to constant: " + line);
+                                }
+                                emit(PUSH_CONSTANT, index, 0);
+                            }
+                            case "local" -> emit(push ? PUSH_INDIRECT : POP_INDIRECT, LCL, index);
+                            case "argument" -> emit(push ? PUSH_INDIRECT : POP_INDIRECT, ARG, index);
+                            case "this" -> emit(push ? PUSH_INDIRECT : POP_INDIRECT, THIS, index);
+                            case "that" -> emit(push ? PUSH_INDIRECT : POP_INDIRECT, THAT, index);
+                            case "pointer" -> emit(push ? PUSH_DIRECT : POP_DIRECT, THIS + index, 0);
+                            case "temp" -> emit(push ? PUSH_DIRECT : POP_DIRECT, TEMP + index, 0);
+                            case "static" -> emit(push ? PUSH_DIRECT : POP_DIRECT, staticAddress(className, index), 0);
+                            default -> throw new IllegalArgumentException("Unknown segment: " + line);
+                        }
+                    }
+                    case "add" -> emit(ADD, 0, 0);
+                    case "sub" -> emit(SUB, 0, 0);
+                    case "neg" -> emit(NEG, 0, 0);
+                    case "eq" -> emit(EQ, 0, 0);
+                    case "gt" -> emit(GT, 0, 0);
+                    case "lt" -> emit(LT, 0, 0);
+                    case "and" -> emit(AND, 0, 0);
+                    case "or" -> emit(OR, 0, 0);
+                    case "not" -> emit(NOT, 0, 0);
+                    case "label" -> {
+                        String label = currFunction + "$" + words[1];
+                        if (labels.put(label, size) != null) {
+                            throw new IllegalArgumentException("Duplicate label: " + label);
+                        }
+                    }
+                    case "goto", "if-goto" -> {
+                        reference(currFunction + "$" + words[1], false);
+                        emit(words[0].equals("goto") ? GOTO : IF_GOTO, 0, 0);
+                    }
+                    case "function" -> {
+                        currFunction = words[1];
+                        if (functions.put(currFunction, size) != null) {
+                            throw new IllegalArgumentException("Duplicate function: " + currFunction);
+                        }
+                        emit(FUNCTION, Integer.parseInt(words[2]), 0);
+                    }
+                    case "call" -> {
+                        reference(words[1], true);
+                        emit(CALL, 0, Integer.parseInt(words[2]));
+                    }
+                    case "return" -> emit(RETURN, 0, 0);
+                    default -> throw new IllegalArgumentException("Unknown VM command: " + line);
+                }
+            }
+        }
+    }
+
+    /* Statics get addresses from 16 in order of first use, like the assembler's variables */
+    private int staticAddress(String className, int index) {
+        String name = className + "." + index;
+        Integer address = statics.get(name);
+        if (address == null) {
+            address = STATIC + statics.size();
+            if (address >= STATIC_END) {
+                throw new IllegalArgumentException("Too many static variables");
+            }
+            statics.put(name, address);
+        }
+        return address;
+    }
+
+    private void reference(String name, boolean function) {
+        fixupCommands.add(size);
+        fixupNames.add(name);
+        fixupIsFunction.add(function);
+    }
+
+    private void emit(int opcode, int operand1, int operand2) {
+        if (size == MAX_COMMANDS) {
+            throw new IllegalArgumentException("Program has more than " + MAX_COMMANDS + " commands");
+        }
+        int offset = size * STRIDE;
+        if (offset == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[offset] = opcode;
+        code[offset + 1] = operand1;
+        code[offset + 2] = operand2;
+        size += 1;
+    }
+
+    private void link() {
+        for (int i = 0; i < fixupCommands.size(); i += 1) {
+            String name = fixupNames.get(i);
+            boolean function = fixupIsFunction.get(i);
+            Integer target = (function ? functions : labels).get(name);
+            if (target == null) {
+                throw new IllegalArgumentException("Undefined " + (function ? "function: " : "label: ") + name);
+            }
+            code[fixupCommands.get(i) * STRIDE + 1] = target;
+        }
+        code = Arrays.copyOf(code, size * STRIDE);
+    }
+
+    int[] code() {
+        return code;
+    }
+
+    /** Number of VM commands */
+    public int size() {
+        return size;
+    }
+
+    /** Command index of the function, or -1 if it is not defined */
+    public int functionAddress(String name) {
+        return functions.getOrDefault(name, -1);
+    }
+}
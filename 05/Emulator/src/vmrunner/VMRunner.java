@@ -0,0 +1,163 @@
+package vmrunner;
+
+import static vmrunner.Program.*;
+
+/*
+Executes a Program directly against a short[] RAM laid out like the Hack platform: SP, LCL, ARG,
+THIS and THAT in RAM[0..4], temp at RAM[5..12], statics from RAM[16] and the stack from RAM[256].
+One step executes one VM command. Return addresses pushed by call are command indices.
+ */
+public class VMRunner {
+    public static final int RAM_SIZE = 32768;
+    private static final String ENTRY = "Sys.init";
+
+    private final int[] code;
+    private final int size;
+    private final int entry;
+    private final short[] ram = new short[RAM_SIZE];
+    private int pc;
+    private long steps;
+
+    /** Starts at Sys.init if the program defines it, else at its first command, with RAM cleared */
+    public VMRunner(Program program) {
+        this.code = program.code();
+        this.size = program.size();
+        int sysInit = program.functionAddress(ENTRY);
+        this.entry = (sysInit >= 0) ? sysInit : 0;
+        this.pc = entry;
+    }
+
+    /**
+     * Sets up the stack like the translator's bootstrap code: SP = 256, then call Sys.init, with a
+     * return address past the last command so that returning from Sys.init ends the program.
+     */
+    public void bootstrap() {
+        ram[SP] = 256;
+        pushFrame(0, size);
+        pc = entry;
+    }
+
+    /** Executes up to n commands, stopping early if execution leaves the program. Returns the count. */
+    public long run(long n) {
+        return execute(n, false);
+    }
+
+    /** Like run(), but also stops at a goto to itself, i.e. label L, goto L, such as in Sys.halt */
+    public long runUntilHalt(long max) {
+        return execute(max, true);
+    }
+
+    private long execute(long n, boolean stopAtHalt) {
+        final int[] code = this.code;
+        final short[] ram = this.ram;
+        int pc = this.pc;
+        long i = 0;
+        boolean halted = false;
+
+        while (i < n && pc < size && !halted) {
+            int offset = pc * STRIDE;
+            int sp = ram[SP];
+            i += 1;
+            pc += 1;
+            switch (code[offset]) {
+                case PUSH_CONSTANT -> push(code[offset + 1]);
+                case PUSH_DIRECT -> push(ram[code[offset + 1]]);
+                case PUSH_INDIRECT -> push(ram[ram[code[offset + 1]] + code[offset + 2]]);
+                case POP_DIRECT -> ram[code[offset + 1]] = pop();
+                case POP_INDIRECT -> {
+                    int address = ram[code[offset + 1]] + code[offset + 2];
+                    ram[address] = pop();
+                }
+                case ADD -> binary(sp, ram[sp - 2] + ram[sp - 1]);
+                case SUB -> binary(sp, ram[sp - 2] - ram[sp - 1]);
+                case AND -> binary(sp, ram[sp - 2] & ram[sp - 1]);
+                case OR -> binary(sp, ram[sp - 2] | ram[sp - 1]);
+                case EQ -> binary(sp, (ram[sp - 2] == ram[sp - 1]) ? -1 : 0);
+                case GT -> binary(sp, (ram[sp - 2] > ram[sp - 1]) ? -1 : 0);
+                case LT -> binary(sp, (ram[sp - 2] < ram[sp - 1]) ? -1 : 0);
+                case NEG -> ram[sp - 1] = (short) -ram[sp - 1];
+                case NOT -> ram[sp - 1] = (short) ~ram[sp - 1];
+                case GOTO -> {
+                    int target = code[offset + 1];
+                    halted = stopAtHalt && target == pc - 1;
+                    pc = target;
+                }
+                case IF_GOTO -> {
+                    if (pop() != 0) {
+                        pc = code[offset + 1];
+                    }
+                }
+                case FUNCTION -> {
+                    int nVars = code[offset + 1];
+                    for (int v = 0; v < nVars; v += 1) {
+                        ram[sp + v] = 0;
+                    }
+                    ram[SP] = (short) (sp + nVars);
+                }
+                case CALL -> {
+                    pushFrame(code[offset + 2], pc);
+                    pc = code[offset + 1];
+                }
+                case RETURN -> {
+                    int frame = ram[LCL];
+                    int returnAddress = ram[frame - 5] & 0xFFFF;
+                    ram[ram[ARG]] = pop();
+                    ram[SP] = (short) (ram[ARG] + 1);
+                    ram[THAT] = ram[frame - 1];
+                    ram[THIS] = ram[frame - 2];
+                    ram[ARG] = ram[frame - 3];
+                    ram[LCL] = ram[frame - 4];
+                    pc = returnAddress;
+                }
+                default -> throw new IllegalStateException("Bad opcode " + code[offset] + " at " + (pc - 1));
+            }
+        }
+        this.pc = pc;
+        steps += i;
+        return i;
+    }
+
+    /* Pushes the frame of a call and repositions ARG and LCL, like the translator's call sequence */
+    private void pushFrame(int nArgs, int returnAddress) {
+        push(returnAddress);
+        push(ram[LCL]);
+        push(ram[ARG]);
+        push(ram[THIS]);
+        push(ram[THAT]);
+        int sp = ram[SP];
+        ram[ARG] = (short) (sp - 5 - nArgs);
+        ram[LCL] = (short) sp;
+    }
+
+    private void push(int value) {
+        int sp = ram[SP];
+        ram[sp] = (short) value;
+        ram[SP] = (short) (sp + 1);
+    }
+
+    private short pop() {
+        int sp = ram[SP] - 1;
+        ram[SP] = (short) sp;
+        return ram[sp];
+    }
+
+    /* Replaces the two operands on top of the stack with result */
+    private void binary(int sp, int result) {
+        ram[sp - 2] = (short) result;
+        ram[SP] = (short) (sp - 1);
+    }
+
+    public short[] ram() {
+        return ram;
+    }
+
+    /** Index of the next command to execute */
+    public int pc() {
+        return pc;
+    }
+
+    /** Total number of commands executed */
+    public long steps() {
+        return steps;
+    }
+}
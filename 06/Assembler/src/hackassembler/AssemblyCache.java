@@ -0,0 +1,75 @@
+package hackassembler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+On-disk cache of assembler output. An entry is named by the SHA-256 of the assembler version, the
+output format and the source bytes, and holds the .hack or .bin file produced for that source.
+Safe to share between threads and between concurrent runs using the same directory.
+ */
+public class AssemblyCache {
+    /** Produces the output file for a source on a cache miss */
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    private final Path directory;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public AssemblyCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Writes the output of assembling source in the given format. On a hit the cached output is
+     * copied into place without parsing; on a miss task is run and its output is added to the cache.
+     */
+    public void assemble(String source, Parser.Format format, Task task) throws IOException {
+        Path output = Parser.outputPath(source, format);
+        Path entry = directory.resolve(key(Files.readAllBytes(Path.of(source)), format) + extension(output));
+
+        if (Files.exists(entry)) {
+            Files.copy(entry, output, StandardCopyOption.REPLACE_EXISTING);
+            hits.incrementAndGet();
+            return;
+        }
+        task.run();
+        // Copy under a temporary name then rename, so a concurrent reader never sees a partial entry
+        Path tmp = Files.createTempFile(directory, "entry", ".tmp");
+        Files.copy(output, tmp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        misses.incrementAndGet();
+    }
+
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+    private static String key(byte[] source, Parser.Format format) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((HackAssembler.VERSION + "/" + format + "/").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(source));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // required of every JVM
+        }
+    }
+
+    private static String extension(Path output) {
+        String name = output.getFileName().toString();
+        return name.substring(name.lastIndexOf('.'));
+    }
+}
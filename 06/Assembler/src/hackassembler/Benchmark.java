@@ -0,0 +1,53 @@
+package hackassembler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+Times the two-pass and single-pass assembler on the given .asm files and reports source lines/sec.
+Usage: Benchmark [iterations] file.asm ...
+ */
+public class Benchmark {
+    private static final int WARMUP = 20;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Must have at least one .asm file.");
+            return;
+        }
+        int iterations = 100;
+        int start = 0;
+        if (args[0].matches("[0-9]+")) {
+            iterations = Integer.parseInt(args[0]);
+            start = 1;
+        }
+        for (int i = start; i < args.length; i += 1) {
+            String file = args[i];
+            time(file, WARMUP, false);
+            time(file, WARMUP, true);
+            double twoPass = time(file, iterations, false);
+            double onePass = time(file, iterations, true);
+            long lines;
+            try (var stream = Files.lines(Path.of(file))) {
+                lines = stream.count();
+            }
+            System.out.printf("%s: two-pass %.3f ms (%.0f lines/s), one-pass %.3f ms (%.0f lines/s), %.2fx%n",
+                    file, twoPass, lines / twoPass * 1e3, onePass, lines / onePass * 1e3, twoPass / onePass);
+        }
+    }
+
+    /* Returns the mean wall time in ms of assembling file the given number of times */
+    private static double time(String file, int iterations, boolean onePass) throws IOException {
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i += 1) {
+            Parser parser = new Parser(file);
+            if (onePass) {
+                parser.assembleOnePass();
+            } else {
+                parser.assemble();
+            }
+        }
+        return (System.nanoTime() - begin) / 1e6 / iterations;
+    }
+}
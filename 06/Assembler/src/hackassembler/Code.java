@@ -1,129 +1,206 @@
 package hackassembler;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 
 /*
 Class to translate the fields (symbolic mnemonics) into binary codes.
+Instructions are encoded as 16-bit words held in an int; text is only produced when a word is
+rendered into a caller-supplied line buffer.
  */
 public class Code {
     private static final int MIN_INT = 0;
     private static final int MAX_INT = 32767;
-    private static final Map<String, String> compCodes = new HashMap<>(){
-        {
-            put("0","0101010");
-            put("1","0111111");
-            put("-1","0111010");
-            put("D", "0001100");
-            put("A","0110000");
-            put("M","1110000");
-            put("!D","0001101");
-            put("!A","0110001");
-            put("!M","1110001");
-            put("-D","0001111");
-            put("-A","0110011");
-            put("-M","1110011");
-            put("D-1","0001110");
-            put("A-1","0110010");
-            put("M-1","1110010");
-            put("D-A","0010011");
-            put("D-M","1010011");
-            put("A-D","0000111");
-            put("M-D","1000111");
+    private static final int C_PREFIX = 0b111 << 13;
+    public static final int LINE_LENGTH = 17; // 16 binary digits + newline
 
-            // commutative operations
-            put("D+1","0011111");
-            put("1+D","0011111");
-            put("A+1","0110111");
-            put("1+A","0110111");
-            put("M+1","1110111");
-            put("1+M","1110111");
-
-            put("D+A","0000010");
-            put("A+D","0000010");
-            put("D+M","1000010");
-            put("M+D","1000010");
-
-            put("D&A","0000000");
-            put("A&D","0000000");
-            put("D&M","1000000");
-            put("M&D","1000000");
-            put("D|A","0010101");
-            put("A|D","0010101");
-            put("D|M","1010101");
-            put("M|D","1010101");
-        }
-    };
-    private static final Map<String, String> destCodes = new HashMap<>(){
-        {
-            put("M","001");
-            put("D","010");
-            put("DM","011");
-            put("MD","011");
-            put("A", "100");
-            put("AM","101");
-            put("MA","101");
-            put("AD","110");
-            put("DA","110");
-            put("ADM","111");
-            put("AMD","111");
-            put("DAM","111");
-            put("DMA","111");
-            put("MAD","111");
-            put("MDA","111");
+    /*
+    Perfect hash for mnemonics of up to 3 chars: each char maps to a digit 1..18 of a base-19 key,
+    so keys of different lengths never collide. The tables hold code + 1 per key, 0 if invalid.
+     */
+    private static final String MNEMONIC_CHARS = "01-+!&|ADMJGTEQLNP";
+    private static final int RADIX = MNEMONIC_CHARS.length() + 1;
+    private static final int MAX_KEY = RADIX * RADIX * RADIX;
+    private static final byte[] CHAR_DIGIT = new byte[128];
+    private static final byte[] COMP_TABLE = new byte[MAX_KEY];
+    private static final byte[] DEST_TABLE = new byte[MAX_KEY];
+    private static final byte[] JUMP_TABLE = new byte[MAX_KEY];
+    static {
+        for (int i = 0; i < MNEMONIC_CHARS.length(); i += 1) {
+            CHAR_DIGIT[MNEMONIC_CHARS.charAt(i)] = (byte) (i + 1);
         }
-    };
-    private static final Map<String, String> jumpCodes = new HashMap<>(){
-        {
-            put("JGT","001");
-            put("JEQ","010");
-            put("JGE","011");
-            put("JLT","100");
-            put("JNE","101");
-            put("JLE","110");
-            put("JMP","111");
+        // Fill the tables from the switches below by enumerating every string the key can encode
+        for (int key = 1; key < MAX_KEY; key += 1) {
+            String mnemonic = keyToString(key);
+            if (mnemonic != null) {
+                COMP_TABLE[key] = (byte) (compCode(mnemonic) + 1);
+                DEST_TABLE[key] = (byte) (destCode(mnemonic) + 1);
+                JUMP_TABLE[key] = (byte) (jumpCode(mnemonic) + 1);
+            }
         }
-    };
+    }
+
+    /*
+    a-bit and c1..c6 of the comp field, i.e., bits 12..6 of a C instruction. -1 if invalid
+     */
+    private static int compCode(String comp) {
+        return switch (comp) {
+            case "0" -> 0b0101010;
+            case "1" -> 0b0111111;
+            case "-1" -> 0b0111010;
+            case "D" -> 0b0001100;
+            case "A" -> 0b0110000;
+            case "M" -> 0b1110000;
+            case "!D" -> 0b0001101;
+            case "!A" -> 0b0110001;
+            case "!M" -> 0b1110001;
+            case "-D" -> 0b0001111;
+            case "-A" -> 0b0110011;
+            case "-M" -> 0b1110011;
+            case "D-1" -> 0b0001110;
+            case "A-1" -> 0b0110010;
+            case "M-1" -> 0b1110010;
+            case "D-A" -> 0b0010011;
+            case "D-M" -> 0b1010011;
+            case "A-D" -> 0b0000111;
+            case "M-D" -> 0b1000111;
+
+            // commutative operations
+            case "D+1", "1+D" -> 0b0011111;
+            case "A+1", "1+A" -> 0b0110111;
+            case "M+1", "1+M" -> 0b1110111;
+            case "D+A", "A+D" -> 0b0000010;
+            case "D+M", "M+D" -> 0b1000010;
+            case "D&A", "A&D" -> 0b0000000;
+            case "D&M", "M&D" -> 0b1000000;
+            case "D|A", "A|D" -> 0b0010101;
+            case "D|M", "M|D" -> 0b1010101;
+            default -> -1;
+        };
+    }
+
+    private static int destCode(String dest) {
+        return switch (dest) {
+            case "M" -> 0b001;
+            case "D" -> 0b010;
+            case "DM", "MD" -> 0b011;
+            case "A" -> 0b100;
+            case "AM", "MA" -> 0b101;
+            case "AD", "DA" -> 0b110;
+            case "ADM", "AMD", "DAM", "DMA", "MAD", "MDA" -> 0b111;
+            default -> -1;
+        };
+    }
+
+    private static int jumpCode(String jump) {
+        return switch (jump) {
+            case "JGT" -> 0b001;
+            case "JEQ" -> 0b010;
+            case "JGE" -> 0b011;
+            case "JLT" -> 0b100;
+            case "JNE" -> 0b101;
+            case "JLE" -> 0b110;
+            case "JMP" -> 0b111;
+            default -> -1;
+        };
+    }
 
     /**
      * Converts an integer to its binary value.
      */
     public static String intToBinary(int num) {
+        return Integer.toBinaryString(encodeAInstruct(num));
+    }
+
+    /**
+     * Returns the A instruction word that loads num into the A register.
+     */
+    public static int encodeAInstruct(int num) {
         if (num < MIN_INT || num > MAX_INT) {
             throw new IllegalArgumentException("Number must be between 0 and 32767");
         }
-        return Integer.toBinaryString(num);
+        return num;
     }
 
-    public static String generateAInstruct(int num) {
-        String lower = intToBinary(num);
-        StringBuilder upper = new StringBuilder();
-        int upperLen = 16 - lower.length();
+    /**
+     * Returns the C instruction word for dest=comp;jump. dest and jump may be null.
+     */
+    public static int encodeCInstruct(String dest, String comp, String jump) {
+        int c = compCode(comp);
+        int d = (dest == null) ? 0 : destCode(dest);
+        int j = (jump == null) ? 0 : jumpCode(jump);
+        if (c < 0 || d < 0 || j < 0) {
+            throw new IllegalArgumentException("Invalid C instruction: " + dest + "=" + comp + ";" + jump);
+        }
+        return C_PREFIX | c << 6 | d << 3 | j;
+    }
 
-        upper.append("0".repeat(Math.max(0, upperLen)));
-        upper.append(lower);
-        return upper.toString();
+    /**
+     * Returns the C instruction word for chars[0..length), which holds dest=comp;jump without
+     * whitespace. eqIndex and semicolonIndex are the positions of '=' and ';', or -1 if absent.
+     */
+    public static int encodeCInstruct(char[] chars, int length, int eqIndex, int semicolonIndex) {
+        int compEnd = (semicolonIndex < 0) ? length : semicolonIndex;
+        int c = lookup(COMP_TABLE, chars, eqIndex + 1, compEnd);
+        int d = (eqIndex < 0) ? 0 : lookup(DEST_TABLE, chars, 0, eqIndex);
+        int j = (semicolonIndex < 0) ? 0 : lookup(JUMP_TABLE, chars, semicolonIndex + 1, length);
+        if (c < 0 || d < 0 || j < 0) {
+            throw new IllegalArgumentException("Invalid C instruction: " + new String(chars, 0, length));
+        }
+        return C_PREFIX | c << 6 | d << 3 | j;
     }
 
-    public static String generateCInstruct(String dest, String comp, String jump) {
-        String d;
-        String j;
-
-        // Get dest portion, if it exists
-        if (dest == null) {
-            d = "000";
-        } else {
-            d = destCodes.get(dest);
+    /* Returns the code of the mnemonic chars[from..to) in table, or -1 if it is not a valid mnemonic */
+    private static int lookup(byte[] table, char[] chars, int from, int to) {
+        if (to - from < 1 || to - from > 3) {
+            return -1;
         }
-        // Get comp portion
-        String c = compCodes.get(comp);
-
-        // Get jump portion, if it exists
-        if (jump == null) {
-            j = "000";
-        } else {
-            j = jumpCodes.get(jump);
+        int key = 0;
+        for (int i = from; i < to; i += 1) {
+            char c = chars[i];
+            if (c >= 128 || CHAR_DIGIT[c] == 0) {
+                return -1;
+            }
+            key = key * RADIX + CHAR_DIGIT[c];
         }
-        return "111" + c + d + j;
+        return table[key] - 1;
+    }
+
+    /* Inverse of the key computed in lookup(), or null if key has a zero digit */
+    private static String keyToString(int key) {
+        StringBuilder mnemonic = new StringBuilder();
+        while (key > 0) {
+            int digit = key % RADIX;
+            if (digit == 0) {
+                return null;
+            }
+            mnemonic.insert(0, MNEMONIC_CHARS.charAt(digit - 1));
+            key /= RADIX;
+        }
+        return mnemonic.toString();
+    }
+
+    /**
+     * Renders word as 16 ASCII binary digits followed by a newline into line[0..16].
+     */
+    public static void render(int word, byte[] line) {
+        for (int i = 15; i >= 0; i -= 1) {
+            line[i] = (byte) ('0' + (word & 1));
+            word >>>= 1;
+        }
+        line[16] = '\n';
+    }
+
+    public static String generateAInstruct(int num) {
+        return toBinaryString(encodeAInstruct(num));
+    }
+
+    public static String generateCInstruct(String dest, String comp, String jump) {
+        return toBinaryString(encodeCInstruct(dest, comp, jump));
+    }
+
+    private static String toBinaryString(int word) {
+        byte[] line = new byte[LINE_LENGTH];
+        render(word, line);
+        return new String(line, 0, 16, StandardCharsets.US_ASCII);
     }
 }
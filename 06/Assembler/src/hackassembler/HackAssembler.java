@@ -0,0 +1,31 @@
+package hackassembler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/*
+In-process entry point to the assembler that is not tied to file paths, so that assembly can be
+chained with other stages in memory or used in a pipe.
+ */
+public class HackAssembler {
+    /** Identifies the encoder's output; bump whenever the words produced for a source may change */
+    public static final String VERSION = "2";
+
+    /**
+     * Assembles the Hack assembly read from in and writes the instruction words to out.
+     * Reads in to EOF in a single pass, then closes both in and out.
+     */
+    public static void assemble(Reader in, WordSink out) throws IOException {
+        new Parser(in, out).assembleOnePass();
+    }
+
+    /**
+     * Same as assemble(Reader, WordSink), for ASCII assembly read from an InputStream.
+     */
+    public static void assemble(InputStream in, WordSink out) throws IOException {
+        assemble(new InputStreamReader(in, StandardCharsets.US_ASCII), out);
+    }
+}
@@ -1,21 +1,214 @@
 package hackassembler;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Main {
-    public static void main(String[] args) throws IOException {
+    /* Outcome of assembling one file: wall time, source size, and the error if it failed */
+    private record Result(String file, long nanos, long bytes, Exception error) {}
+
+    /* Standard output for a WordSink, which flushes it when the sink is closed but leaves it open */
+    private static class StandardOutput extends FilterOutputStream {
+        StandardOutput() {
+            super(System.out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /* Standard input that counts the bytes read from it, and that closing leaves open like StandardOutput */
+    private static class CountingInput extends FilterInputStream {
+        private long count = 0;
+
+        CountingInput() {
+            super(System.in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count += 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
         /*
         If one arg, print error msg
         Else, run the assembler where the arg is the .asm file to be processed
+        An arg of - reads assembly from stdin and writes the output to stdout
+        The summary of --jobs and the statistics of --cache go to stderr, out of the output of -
+        Options: --one-pass assembles each file in a single pass with backpatching
+                 --format=text|bin selects .hack text (default) or packed 16-bit .bin output
+                 --jobs N assembles the files on N threads and prints a per-file summary
+                 --cache DIR reuses output cached in DIR for sources assembled before
         */
         if (args.length == 0) {
             System.out.println("Must have one arg.");
-        } else {
+            return;
+        }
+        boolean onePass = false;
+        Parser.Format format = Parser.Format.TEXT;
+        int jobs = 0;
+        AssemblyCache cache = null;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.equals("--one-pass")) {
+                onePass = true;
+            } else if (arg.startsWith("--format=")) {
+                format = switch (arg.substring("--format=".length())) {
+                    case "text" -> Parser.Format.TEXT;
+                    case "bin" -> Parser.Format.BINARY;
+                    default -> throw new IllegalArgumentException("Unknown format: " + arg);
+                };
+            } else if (arg.equals("--jobs")) {
+                i += 1;
+                if (i == args.length || !args[i].matches("[0-9]+") || Integer.parseInt(args[i]) == 0) {
+                    throw new IllegalArgumentException("--jobs must be followed by a positive integer");
+                }
+                jobs = Integer.parseInt(args[i]);
+            } else if (arg.equals("--cache")) {
+                i += 1;
+                if (i == args.length) {
+                    throw new IllegalArgumentException("--cache must be followed by a directory");
+                }
+                cache = new AssemblyCache(Path.of(args[i]));
+            } else {
+                files.add(arg);
+            }
+        }
+
+        if (jobs == 0) {
             // example: Pong.asm is 195 KB
-            for (String arg : args) {
-                Parser parser = new Parser(arg);
-                parser.assemble();
+            for (String file : files) {
+                assemble(file, onePass, format, cache);
+            }
+            printCacheStats(cache);
+            return;
+        }
+
+        // Each Parser owns its reader, writer and symbol table, so files can be assembled concurrently
+        final boolean finalOnePass = onePass;
+        final Parser.Format finalFormat = format;
+        final AssemblyCache finalCache = cache;
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        List<Future<Result>> futures = new ArrayList<>();
+        long begin = System.nanoTime();
+        for (String file : files) {
+            futures.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                Exception error = null;
+                long bytes = 0;
+                try {
+                    bytes = assemble(file, finalOnePass, finalFormat, finalCache);
+                } catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+                return new Result(file, System.nanoTime() - start, bytes, error);
+            }));
+        }
+        executor.shutdown();
+
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        long total = System.nanoTime() - begin;
+        int failures = printSummary(results, total, jobs);
+        printCacheStats(cache);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /* Assembles one file, or stdin to stdout for -, and returns the number of source bytes */
+    private static long assemble(String file, boolean onePass, Parser.Format format, AssemblyCache cache)
+            throws IOException {
+        if (cache != null && !file.equals("-")) {
+            cache.assemble(file, format, () -> assemble(file, onePass, format, null));
+            return new File(file).length();
+        }
+        if (file.equals("-")) {
+            // Closing the sink must not close stdout, which later output and other - args still use
+            OutputStream out = new StandardOutput();
+            WordSink sink = (format == Parser.Format.BINARY)
+                    ? new WordSink.Binary(Channels.newChannel(out))
+                    : new WordSink.Text(new BufferedOutputStream(out));
+            CountingInput in = new CountingInput();
+            HackAssembler.assemble(in, sink);
+            return in.count;
+        }
+        Parser parser = new Parser(file, format);
+        if (onePass) {
+            parser.assembleOnePass();
+        } else {
+            parser.assemble();
+        }
+        return new File(file).length();
+    }
+
+    private static void printCacheStats(AssemblyCache cache) {
+        if (cache != null) {
+            System.err.printf("cache: %d hits, %d misses%n", cache.hits(), cache.misses());
+        }
+    }
+
+    /* Prints per-file wall time and throughput followed by the totals. Returns the number of failures. */
+    private static int printSummary(List<Result> results, long totalNanos, int jobs) {
+        int failures = 0;
+        long totalBytes = 0;
+        for (Result r : results) {
+            if (r.error() != null) {
+                failures += 1;
+                System.err.printf("%s: FAILED after %.1f ms: %s%n", r.file(), r.nanos() / 1e6, r.error());
+            } else {
+                totalBytes += r.bytes();
+                System.err.printf("%s: %.1f ms, %.1f MB/s%n", r.file(), r.nanos() / 1e6,
+                        r.bytes() / 1e6 / (r.nanos() / 1e9));
             }
         }
+        System.err.printf("%d files (%d failed) on %d threads in %.1f ms, %.1f MB/s%n", results.size(), failures,
+                jobs, totalNanos / 1e6, totalBytes / 1e6 / (totalNanos / 1e9));
+        return failures;
     }
 }
@@ -1,53 +1,83 @@
 package hackassembler;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 
 public class Parser {
+    /*
+    TEXT = one line of 16 ASCII binary digits per word (.hack)
+    BINARY = packed big-endian 16-bit words (.bin)
+     */
+    public enum Format {
+        TEXT, BINARY
+    }
+
     // Static variables
-    private static final Set<Character> C_CHARS = new HashSet<>(){
-        {
-            addAll(List.of('0', '1', '-', '+', 'A', 'D', 'M', '!', '&', '|', 'J',
-                    'G', 'T', 'E', 'Q', 'L', 'T', 'N', 'M', 'P', '=', ';'));
+    // Character classes of the ASCII range, indexed by char; non-ASCII chars are classified on demand
+    private static final byte C_CHAR = 1;       // may appear in a C instruction
+    private static final byte SYMBOL_CHAR = 2;  // may appear in a symbol or constant
+    private static final byte DIGIT = 4;
+    private static final byte[] CHAR_CLASS = new byte[128];
+    static {
+        for (char c : "01-+ADM!&|JGTEQLNP=;".toCharArray()) {
+            CHAR_CLASS[c] |= C_CHAR;
+        }
+        for (char c : "_.$:".toCharArray()) {
+            CHAR_CLASS[c] |= SYMBOL_CHAR;
         }
-    };
-    private static final Set<Character> SYMBOL_CHARS = new HashSet<>(){
-        {
-            addAll(List.of('_', '.', '$', ':'));
+        for (char c = 'a'; c <= 'z'; c += 1) {
+            CHAR_CLASS[c] |= SYMBOL_CHAR;
+            CHAR_CLASS[Character.toUpperCase(c)] |= SYMBOL_CHAR;
         }
-    };
-    private static final Set<String> PREDEFINED = new HashSet<>(){
-        {
-            addAll(List.of(new String[]{"SP", "LCL", "ARG", "THIS", "THAT", "SCREEN", "KBD"}));
+        for (char c = '0'; c <= '9'; c += 1) {
+            CHAR_CLASS[c] |= SYMBOL_CHAR | DIGIT;
         }
-    };
+    }
+    private static final Set<String> PREDEFINED = Set.of("SP", "LCL", "ARG", "THIS", "THAT", "SCREEN", "KBD",
+            "R0", "R1", "R2", "R3", "R4", "R5", "R6", "R7", "R8", "R9", "R10", "R11", "R12", "R13", "R14", "R15");
 
     // Instance variables
     private BufferedReader bufferedReader;
-    private final PrintWriter printWriter;
-    private final String source;
+    private final WordSink sink;
+    private final String source;        // null if reading from a stream; only files can be read twice
     private final Map<String, Integer> symbolTable = new HashMap<>();
+    private final Map<String, Integer> labels = new HashMap<>(); // the label entries of symbolTable
 
     private String currInstruct;
     private char instructType;  // 'C' = C instruction, 'A' = A instruction, 'L' = label
-    private String symbol;      // null if instructType = C
-    private String CString;
+    private String symbol;      // null if instructType = C, or if A instruction is a constant
+    private int constant;       // value of an A instruction constant, ex., @123
+    private char[] CChars = new char[32]; // C instruction with non-instruction chars removed
+    private int CLength, eqIndex, semicolonIndex; // eqIndex/semicolonIndex are -1 if absent
 
     // Constructor
     public Parser(String source) throws IOException {
-        // Make the output file name from the source file prefix & initialize BufferedReader
-        this.source = source;
-        this.bufferedReader = new BufferedReader(new FileReader(source));
+        this(source, Format.TEXT);
+    }
+
+    public Parser(String source, Format format) throws IOException {
+        // Make the output file name from the source file prefix
+        this(source, new FileReader(source), openSink(outputPath(source, format), format));
+    }
+
+    /** Reads assembly from in and writes the words to sink. Only assembleOnePass() can be used. */
+    public Parser(Reader in, WordSink sink) {
+        this(null, in, sink);
+    }
 
-        // Initialize PrintReader
-        String output = source.substring(0, source.length() - 4) + ".hack";
-        this.printWriter = new PrintWriter(new BufferedWriter(new FileWriter(output)));
+    private Parser(String source, Reader in, WordSink sink) {
+        this.source = source;
+        this.bufferedReader = new BufferedReader(in);
+        this.sink = sink;
 
         // Add R0 through R15 in Map
         for (int i = 0; i <= 15; i += 1) {
             symbolTable.put("R" + i, i);
-            PREDEFINED.add("R" + i);
         }
         // Add other special symbol in Map
         symbolTable.put("SP", 0);
@@ -74,6 +104,7 @@ public class Parser {
                     throw new IllegalArgumentException("Symbol cannot be a predefined word");
                 }
                 symbolTable.put(symbol, lineNum - 1);
+                labels.put(symbol, lineNum - 1);
             } else {
                 lineNum += 1;
             }
@@ -86,41 +117,128 @@ public class Parser {
      * Does two passes: one to make symbol table, another to translate to binary.
      */
     public void assemble() throws IOException {
+        if (source == null) {
+            throw new IllegalStateException("Two-pass assembly needs a file source, use assembleOnePass()");
+        }
         makeSymbolTable();
 
         // Reinitialize BufferedReader for second pass of input file
+        bufferedReader.close();
         FileReader reader = new FileReader(source);
         this.bufferedReader = new BufferedReader(reader);
         advance();
 
         int variable = 16;
-        String dest, comp, jmp, byteInstruct;
         while (currInstruct != null) {
             if (instructType == 'A') {
-                if (symbolTable.containsKey(symbol)) { // Predefined symbols & label symbols
-                    byteInstruct = Code.generateAInstruct(symbolTable.get(symbol));
+                if (symbol == null) { // Integer assigned to A reg, ex., @4
+                    sink.write(Code.encodeAInstruct(constant));
 
-                } else if (symbol.matches("[0-9]+")) { // Integer assigned to A reg, ex., @4
-                    byteInstruct = Code.generateAInstruct(Integer.parseInt(symbol));
+                } else if (symbolTable.containsKey(symbol)) { // Predefined symbols & label symbols
+                    sink.write(Code.encodeAInstruct(symbolTable.get(symbol)));
 
                 } else { // New variable symbol, mapped to RAM[16] and increases by one for each new variable
-                    byteInstruct = Code.generateAInstruct(variable);
+                    sink.write(Code.encodeAInstruct(variable));
                     symbolTable.put(symbol, variable);
                     variable += 1;
                 }
-                printWriter.println(byteInstruct);
 
             } else if (instructType == 'C') {
-                dest = dest(CString);
-                comp = comp(CString);
-                jmp = jump(CString);
-                byteInstruct = Code.generateCInstruct(dest, comp, jmp);
-                printWriter.println(byteInstruct);
+                sink.write(Code.encodeCInstruct(CChars, CLength, eqIndex, semicolonIndex));
+            }
+            advance();
+        }
+        bufferedReader.close();
+        sink.close();
+    }
+
+    /**
+     * Single-pass variant of assemble(). Instructions are emitted into an in-memory buffer as the
+     * file is read once; A-instructions that reference a symbol not yet in the symbol table are
+     * recorded as forward references and patched at EOF, once every label is known.
+     * Produces the same output as assemble().
+     */
+    public void assembleOnePass() throws IOException {
+        int[] words = new int[1024];
+        int numWords = 0;
+        int[] fixupIndices = new int[256];
+        List<String> fixupSymbols = new ArrayList<>();
+
+        advance();
+        while (currInstruct != null) {
+            if (instructType == 'L') {
+                if (PREDEFINED.contains(symbol)) {
+                    throw new IllegalArgumentException("Symbol cannot be a predefined word");
+                }
+                symbolTable.put(symbol, numWords);
+                labels.put(symbol, numWords);
+                advance();
+                continue;
+            }
+            if (numWords == words.length) {
+                words = Arrays.copyOf(words, numWords * 2);
+            }
+            if (instructType == 'A') {
+                if (symbol == null) { // Integer assigned to A reg, ex., @4
+                    words[numWords] = Code.encodeAInstruct(constant);
+
+                } else if (symbolTable.containsKey(symbol)) { // Predefined symbols & labels seen so far
+                    words[numWords] = Code.encodeAInstruct(symbolTable.get(symbol));
+
+                } else { // Forward label reference or variable, resolved at EOF
+                    if (fixupSymbols.size() == fixupIndices.length) {
+                        fixupIndices = Arrays.copyOf(fixupIndices, fixupIndices.length * 2);
+                    }
+                    fixupIndices[fixupSymbols.size()] = numWords;
+                    fixupSymbols.add(symbol);
+                }
+            } else {
+                words[numWords] = Code.encodeCInstruct(CChars, CLength, eqIndex, semicolonIndex);
             }
+            numWords += 1;
             advance();
         }
         bufferedReader.close();
-        printWriter.close();
+
+        // Backpatch forward references in program order, so that symbols which never appeared as
+        // a label are allocated as variables from RAM[16] in order of first use, like the second pass
+        int variable = 16;
+        for (int i = 0; i < fixupSymbols.size(); i += 1) {
+            String sym = fixupSymbols.get(i);
+            if (!symbolTable.containsKey(sym)) {
+                symbolTable.put(sym, variable);
+                variable += 1;
+            }
+            words[fixupIndices[i]] = Code.encodeAInstruct(symbolTable.get(sym));
+        }
+        sink.writeAll(words, numWords);
+        sink.close();
+    }
+
+    /**
+     * Returns the ROM address of each label of the program, once it has been assembled.
+     */
+    public Map<String, Integer> labels() {
+        return labels;
+    }
+
+    /**
+     * Returns the output file for source: the .asm suffix replaced by .hack or .bin for the given format.
+     */
+    public static Path outputPath(String source, Format format) {
+        String prefix = source.substring(0, source.length() - 4);
+        return Path.of(prefix + ((format == Format.BINARY) ? ".bin" : ".hack"));
+    }
+
+    /*
+     * Opens the output file for the given format.
+     */
+    private static WordSink openSink(Path output, Format format) throws IOException {
+        if (format == Format.BINARY) {
+            return new WordSink.Binary(FileChannel.open(output, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        return new WordSink.Text(new BufferedOutputStream(Files.newOutputStream(output)));
     }
 
     /*
@@ -150,116 +268,81 @@ public class Parser {
 
     /*
      * If (instructType == C):
-     * Sets CString to the substring that makes up valid instruction components.
-     * Only appends CChars to intermediate string. Thus, there will be no whitespace in str.
+     * Copies the chars that make up valid instruction components into CChars, in a single scan that
+     * also records the positions of '=' and ';'. Thus, there will be no whitespace in CChars, and
+     * dest, comp and jump are the ranges before '=', between '=' and ';', and after ';'.
      * this.symbol set to null in this case.
 
      * else:
      * Updates symbol to the symbolic portion of currInstruct.
-     * For example, if currInstruct = "@123", symbol is set to "123".
-     * If currInstruct = "(END)", symbol is set to "END".
-     * this.CString set to null in this case.
+     * For example, if currInstruct = "(END)", symbol is set to "END".
+     * If currInstruct = "@123", symbol is set to null and constant is set to 123.
      */
     private void updateParams() {
-        StringBuilder newString = new StringBuilder();
         int len = currInstruct.length();
         int i;
         char currChar;
-        boolean isSymbol = false;
 
         if (instructType == 'C') {
+            if (CChars.length < len) {
+                CChars = new char[len];
+            }
+            CLength = 0;
+            eqIndex = -1;
+            semicolonIndex = -1;
             for (i = 0; i < len; i += 1) {
                 currChar = currInstruct.charAt(i);
-                if (C_CHARS.contains(currChar)) {
-                    newString.append(currChar);
-                } else if (currChar == '/') { // start of comment or space
+                if (currChar == '/') { // start of comment
                     break;
+                } else if (currChar < 128 && (CHAR_CLASS[currChar] & C_CHAR) != 0) {
+                    if (currChar == '=') {
+                        eqIndex = CLength;
+                    } else if (currChar == ';') {
+                        semicolonIndex = CLength;
+                    }
+                    CChars[CLength] = currChar;
+                    CLength += 1;
                 }
             }
             this.symbol = null;
-            this.CString = newString.toString();
 
-        } else { // instructType = 'A' or 'L'
-            for (i = 0; i < len; i += 1) {
+        } else { // instructType = 'A' or 'L', skip the leading '@' or '('
+            boolean isSymbol = false;
+            int value = 0;
+            int charClass;
+            for (i = 1; i < len; i += 1) {
                 currChar = currInstruct.charAt(i);
-
-                if (Character.isLetterOrDigit(currChar) || SYMBOL_CHARS.contains(currChar)) { // append if valid char
-                    newString.append(currChar);
-                } else if (currChar == '/' || currChar == ' ') { // start of comment or space, stop appending
-                    break;
-                } else if (currChar == '(' || currChar == ')' || currChar == '@') { // skip these, only want chars between parentheses or after @
-                    continue;
+                if (currChar < 128) {
+                    charClass = CHAR_CLASS[currChar];
                 } else {
-                    throw new IllegalArgumentException("Invalid character for symbol");
+                    charClass = Character.isLetterOrDigit(currChar) ? SYMBOL_CHAR : 0;
                 }
-            }
-            this.symbol = newString.toString();
-            this.CString = null;
 
-            // Checking if this.symbol is a constant like "123" or a symbol like "LOOP_START"
-            // Note: symbols have at least one letter or valid symbol char
-            len = symbol.length();
-            for (i = 0; i < len; i += 1) {
-                currChar = symbol.charAt(i);
-                if ((SYMBOL_CHARS.contains(currChar)) || Character.isLetter(currChar)) {
+                if ((charClass & DIGIT) != 0) {
+                    // Saturate just above the largest constant so out-of-range values are rejected
+                    value = Math.min(value * 10 + (currChar - '0'), Short.MAX_VALUE + 1);
+                } else if ((charClass & SYMBOL_CHAR) != 0) {
                     isSymbol = true;
+                } else if (currChar == ')' || currChar == '/' || Character.isWhitespace(currChar)) {
+                    break; // end of label, or start of comment or space
+                } else {
+                    throw new IllegalArgumentException("Invalid character for symbol");
                 }
             }
+            if (i == 1) {
+                throw new IllegalArgumentException("Missing symbol");
+            }
             // If this.symbol is a symbol and not an integer, it cannot begin with a digit
-            if (isSymbol && Character.isDigit(symbol.charAt(0))) {
+            // Note: symbols have at least one letter or valid symbol char
+            if (isSymbol && Character.isDigit(currInstruct.charAt(1))) {
                 throw new IllegalArgumentException("Symbol cannot begin with digit");
             }
+            if (isSymbol || instructType == 'L') {
+                this.symbol = currInstruct.substring(1, i);
+            } else {
+                this.symbol = null;
+                this.constant = value;
+            }
         }
     }
-
-    /*
-     * Returns the symbolic dest part of the given C_INSTRUCTION.
-     * If no symbolic dest part, returns null.
-     * Recall: dest = comp; jmp
-     */
-    private static String dest(String CInstruct) {
-        String dest = null;
-
-        // If substring has =, then part before = is dest
-        if (CInstruct.contains("=")) {
-            dest = CInstruct.substring(0, CInstruct.indexOf('='));
-        }
-        return dest;
-    }
-
-    /*
-     * Returns the symbolic comp part of the given C_INSTRUCTION.
-     * If no symbolic comp part, returns null.
-     * Recall: dest = comp; jmp
-     */
-    private static String comp(String CInstruct) {
-        String comp = null;
-
-        // Determine comp based off whether ; and = exist
-        if (CInstruct.contains("=") && CInstruct.contains(";")) { // M = 1; JMP
-            comp = CInstruct.substring(CInstruct.indexOf('='), CInstruct.indexOf(';'));
-
-        } else if (!CInstruct.contains("=") && CInstruct.contains(";")) { // ex: D; JMP
-            comp = CInstruct.substring(0, CInstruct.indexOf(';'));
-
-        } else if (CInstruct.contains("=") && !CInstruct.contains(";")) {
-            comp = CInstruct.substring(CInstruct.indexOf('=') + 1);
-        }
-        return comp;
-    }
-    
-    /*
-     * Returns the symbolic jmp part of the given C_INSTRUCTION;
-     * if no symbolic jmp part, returns null.
-     * Recall: dest = comp; jmp
-     */
-    private static String jump(String instruction) {
-        String jmp = null;
-
-        // All instruction with jmp have ;
-        if (instruction.contains(";")) {
-            jmp = instruction.substring(instruction.indexOf(';') + 1);
-        }
-        return jmp;
-    }
-}
\ No newline at end of file
+}
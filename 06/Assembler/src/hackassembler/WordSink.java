@@ -0,0 +1,131 @@
+package hackassembler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/*
+Destination for assembled 16-bit instruction words.
+ */
+public interface WordSink extends Closeable {
+    /** Writes one instruction word. */
+    void write(int word) throws IOException;
+
+    /** Writes words[0..count). Sinks that know how to store a whole program at once override this. */
+    default void writeAll(int[] words, int count) throws IOException {
+        for (int i = 0; i < count; i += 1) {
+            write(words[i]);
+        }
+    }
+
+    /**
+     * Writes each word as a line of 16 ASCII binary digits, i.e., the .hack format.
+     */
+    class Text implements WordSink {
+        private final OutputStream out;
+        private final byte[] line = new byte[Code.LINE_LENGTH];
+
+        public Text(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int word) throws IOException {
+            Code.render(word, line);
+            out.write(line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes each word as a packed big-endian 16-bit value. Words are staged in a buffer that is
+     * drained to the channel when full; a whole program written to a FileChannel is stored
+     * through a MappedByteBuffer instead.
+     */
+    class Binary implements WordSink {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192); // big-endian by default
+
+        public Binary(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int word) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putShort((short) word);
+        }
+
+        @Override
+        public void writeAll(int[] words, int count) throws IOException {
+            if (!(channel instanceof FileChannel fileChannel)) {
+                WordSink.super.writeAll(words, count);
+                return;
+            }
+            // Final size is known, so map that region of the output file and store the words directly
+            flush();
+            long position = fileChannel.position();
+            MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_WRITE, position, 2L * count);
+            for (int i = 0; i < count; i += 1) {
+                mapped.putShort((short) words[i]);
+            }
+            fileChannel.position(position + 2L * count);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * Collects the words in memory, e.g., to load them into a ROM without going through a file.
+     */
+    class Memory implements WordSink {
+        private short[] words = new short[1024];
+        private int size = 0;
+
+        @Override
+        public void write(int word) {
+            if (size == words.length) {
+                words = Arrays.copyOf(words, size * 2);
+            }
+            words[size] = (short) word;
+            size += 1;
+        }
+
+        /** Returns the number of words written */
+        public int size() {
+            return size;
+        }
+
+        /** Returns a copy of the words written, in order */
+        public short[] toArray() {
+            return Arrays.copyOf(words, size);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
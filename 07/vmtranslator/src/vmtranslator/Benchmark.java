@@ -0,0 +1,143 @@
+package vmtranslator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/*
+Times the decoding of VM commands, String.split() and List.of() classification as the Parser used to
+do it against VMCommand.parse(), and the whole translation, and reports lines/sec.
+Usage: Benchmark [iterations] [file.vm]; without a file, a synthetic 1M-line .vm file is generated.
+ */
+public class Benchmark {
+    private static final int WARMUP = 3;
+    private static final int SYNTHETIC_LINES = 1_000_000;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = 5;
+        int start = 0;
+        if (args.length > 0 && args[0].matches("[0-9]+")) {
+            iterations = Integer.parseInt(args[0]);
+            start = 1;
+        }
+        Path file;
+        if (start < args.length) {
+            file = Path.of(args[start]);
+        } else {
+            // The Parser reads paths relative to the working directory
+            file = Files.createTempFile(Path.of(""), "Synthetic", ".vm");
+            file.toFile().deleteOnExit();
+            writeSynthetic(file, SYNTHETIC_LINES);
+        }
+        List<String> lines = Files.readAllLines(file);
+
+        for (int i = 0; i < WARMUP; i += 1) {
+            splitDecode(lines);
+            scanDecode(lines);
+        }
+        double split = time(() -> splitDecode(lines), iterations);
+        double scan = time(() -> scanDecode(lines), iterations);
+        System.out.printf("decode %s: split %.1f ms (%.0f lines/s), scan %.1f ms (%.0f lines/s), %.2fx%n",
+                file.getFileName(), split, lines.size() / split * 1e3, scan, lines.size() / scan * 1e3, split / scan);
+
+        String source = file.toString();
+        Path.of(source.substring(0, source.length() - 3) + ".asm").toFile().deleteOnExit();
+        Task translate = () -> {
+            try {
+                new Parser(source).translate();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        for (int i = 0; i < WARMUP; i += 1) {
+            translate.run();
+        }
+        double translation = time(translate, iterations);
+        System.out.printf("translate %s: %.1f ms (%.0f lines/s)%n",
+                file.getFileName(), translation, lines.size() / translation * 1e3);
+    }
+
+    private interface Task {
+        void run();
+    }
+
+    /* Returns the mean wall time in ms of running task the given number of times */
+    private static double time(Task task, int iterations) {
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i += 1) {
+            task.run();
+        }
+        return (System.nanoTime() - begin) / 1e6 / iterations;
+    }
+
+    /* The decoding of the Parser before VMCommand: returns a checksum so that the work is not removed */
+    private static int splitDecode(List<String> lines) {
+        int checksum = 0;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("//")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            if (List.of("push", "pop").contains(words[0])) {
+                checksum += words[1].length() + Integer.parseInt(words[2]);
+            } else if (List.of("label", "goto", "if-goto").contains(words[0])) {
+                checksum += words[1].length();
+            } else if (List.of("function", "call").contains(words[0])) {
+                checksum += words[1].length() + Integer.parseInt(words[2]);
+            } else {
+                checksum += words[0].length();
+            }
+        }
+        return checksum;
+    }
+
+    private static int scanDecode(List<String> lines) {
+        int checksum = 0;
+        for (String line : lines) {
+            VMCommand command = VMCommand.parse(line);
+            if (command != null) {
+                checksum += command.opcode().ordinal() + command.index();
+            }
+        }
+        return checksum;
+    }
+
+    /* Writes functions of random push, pop, arithmetic, branching and call commands */
+    private static void writeSynthetic(Path file, int numLines) throws IOException {
+        String[] segments = {"local", "argument", "this", "that", "temp", "static", "constant", "pointer"};
+        String[] arithmetic = {"add", "sub", "neg", "eq", "gt", "lt", "and", "or", "not"};
+        Random random = new Random(12);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            int function = 0;
+            for (int i = 0; i < numLines; i += 1) {
+                int kind = random.nextInt(100);
+                if (i % 1000 == 0) {
+                    writer.write("function Synthetic.f" + function + " 2");
+                    function += 1;
+                } else if (kind < 40) {
+                    String segment = segments[random.nextInt(segments.length)];
+                    int index = segment.equals("pointer") ? random.nextInt(2) : random.nextInt(8);
+                    writer.write("push " + segment + " " + index);
+                } else if (kind < 60) {
+                    String segment = segments[random.nextInt(segments.length - 2)];
+                    writer.write("pop " + segment + " " + random.nextInt(8) + "    // comment");
+                } else if (kind < 85) {
+                    writer.write(arithmetic[random.nextInt(arithmetic.length)]);
+                } else if (kind < 90) {
+                    writer.write("label L" + i);
+                } else if (kind < 95) {
+                    writer.write("if-goto L" + (i - 1));
+                } else if (kind < 98) {
+                    writer.write("call Synthetic.f" + random.nextInt(function) + " 1");
+                } else {
+                    writer.write("return");
+                }
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package vmtranslator;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+The CallGraph of a program maps each function to the functions it calls, read from the function and
+call commands of its .vm files. The VM has no indirect calls, so a function that cannot be reached
+from Sys.init through the graph is never called. Code outside of any function runs from the top
+of its file, so the functions it calls are roots too.
+*/
+public class CallGraph {
+    private final Map<String, Set<String>> callees = new HashMap<>();
+    private final Set<String> roots = new LinkedHashSet<>();
+
+    /** Reads the call graph of the .vm files in parentDirectory */
+    public static CallGraph read(String parentDirectory, Collection<String> files) throws IOException {
+        CallGraph graph = new CallGraph();
+        for (String file : files) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(parentDirectory + file))) {
+                Set<String> current = graph.roots;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    VMCommand command = VMCommand.parse(line);
+                    if (command == null) {
+                        continue;
+                    }
+                    if (command.opcode() == Opcode.FUNCTION) {
+                        current = graph.callees.computeIfAbsent(command.name(), name -> new LinkedHashSet<>());
+                    } else if (command.opcode() == Opcode.CALL) {
+                        current.add(command.name());
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    /** True if the program defines the function */
+    public boolean defines(String function) {
+        return callees.containsKey(function);
+    }
+
+    /**
+     * Returns the functions reachable from root and from the code outside of any function.
+     */
+    public Set<String> reachableFrom(String root) {
+        Set<String> reachable = new HashSet<>();
+        ArrayDeque<String> pending = new ArrayDeque<>(roots);
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            String function = pending.poll();
+            if (reachable.add(function)) {
+                pending.addAll(callees.getOrDefault(function, Set.of()));
+            }
+        }
+        return reachable;
+    }
+}
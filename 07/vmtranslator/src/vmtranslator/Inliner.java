@@ -0,0 +1,121 @@
+package vmtranslator;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+The Inliner finds the functions whose calls the Parser replaces by a copy of their body: leaf
+functions of straight-line code, without labels, gotos or calls, that end with their only return and
+have at most budget commands. The stack depth is known at every command of such a body, so its
+arguments and locals are addressed relative to SP instead of ARG and LCL, and no frame is pushed.
+*/
+public class Inliner {
+    /**
+     * An inlinable function: the file whose static segment it uses, its number of locals, its body
+     * without the final return, and whether it pops pointer 0 or 1, which the caller gets back.
+     */
+    public record Function(String file, int nVars, List<VMCommand> body, boolean setsThis, boolean setsThat) {}
+
+    private final Map<String, Function> functions = new HashMap<>();
+
+    /** Reads the inlinable functions of the .vm files in parentDirectory */
+    public static Inliner read(String parentDirectory, Collection<String> files, int budget) throws IOException {
+        Inliner inliner = new Inliner();
+        Set<String> defined = new HashSet<>();
+        Set<String> duplicates = new HashSet<>();
+        for (String file : files) {
+            String fileName = file.substring(0, file.length() - 3);
+            try (BufferedReader reader = new BufferedReader(new FileReader(parentDirectory + file))) {
+                String function = null;
+                int nVars = 0;
+                List<VMCommand> body = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    VMCommand command = VMCommand.parse(line);
+                    if (command == null) {
+                        continue;
+                    }
+                    if (command.opcode() == Opcode.FUNCTION) {
+                        inliner.add(function, fileName, nVars, body, budget);
+                        function = command.name();
+                        nVars = command.index();
+                        body = new ArrayList<>();
+                        if (!defined.add(function)) {
+                            duplicates.add(function);
+                        }
+                    } else {
+                        body.add(command);
+                    }
+                }
+                inliner.add(function, fileName, nVars, body, budget);
+            }
+        }
+        inliner.functions.keySet().removeAll(duplicates);
+        return inliner;
+    }
+
+    /** The inlinable function of the given name, or null if there is none */
+    public Function get(String name) {
+        return functions.get(name);
+    }
+
+    /** Names of the inlinable functions, whose calls all get inlined */
+    public Set<String> names() {
+        return functions.keySet();
+    }
+
+    /*
+    Adds the function if its body (including the return) is inlinable within budget.
+    */
+    private void add(String name, String file, int nVars, List<VMCommand> body, int budget) {
+        // Sys.init is called by the bootstrap code, which never returns
+        if (name == null || name.equals("Sys.init") || body.isEmpty() || body.size() > budget
+                || body.get(body.size() - 1).opcode() != Opcode.RETURN) {
+            return;
+        }
+        List<VMCommand> straight = body.subList(0, body.size() - 1);
+        boolean setsThis = false, setsThat = false;
+        int depth = 0;
+        for (VMCommand command : straight) {
+            if (depth < pops(command.opcode())) {
+                return;
+            }
+            switch (command.opcode()) {
+                case PUSH -> depth += 1;
+                case POP -> {
+                    depth -= 1;
+                    if (command.segment() == Segment.POINTER) {
+                        setsThis |= command.index() == 0;
+                        setsThat |= command.index() == 1;
+                    }
+                }
+                case NEG, NOT -> {}
+                case ADD, SUB, EQ, GT, LT, AND, OR -> depth -= 1;
+                default -> {  // labels, branching, calls or a second return
+                    return;
+                }
+            }
+        }
+        if (depth == 0) { // the return value is missing
+            return;
+        }
+        functions.put(name, new Function(file, nVars, List.copyOf(straight), setsThis, setsThat));
+    }
+
+    /* Number of values a command takes off the stack */
+    private static int pops(Opcode opcode) {
+        return switch (opcode) {
+            case POP, NEG, NOT -> 1;
+            case ADD, SUB, EQ, GT, LT, AND, OR -> 2;
+            default -> 0;
+        };
+    }
+}
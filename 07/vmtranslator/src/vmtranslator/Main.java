@@ -1,15 +1,75 @@
 package vmtranslator;
 
 import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class Main {
     public static void main(String[] args) throws IOException {
+        /*
+        Each arg is a .vm file or a directory of .vm files, translated to one .asm file.
+        --shared-calls routes every call and return through one shared $$CALL/$$RETURN routine.
+        --peephole optimizes the generated code with the standard Peephole passes.
+        --cache-tos keeps the top of the stack in the D register between VM commands.
+        --prune leaves out the functions that are never called from Sys.init.
+        --source-map writes the ROM address ranges of each VM command to a .map file next to the .asm file.
+        --inline N replaces the calls of straight-line leaf functions of at most N commands by their body.
+        --jobs N translates the files of a directory on N threads.
+        */
         if (args.length == 0) {
             System.out.println("Must have at least one argument.");
         } else {
-            for (String arg : args) {
-                Parser parser = new Parser(arg);
+            Set<Parser.Option> options = EnumSet.noneOf(Parser.Option.class);
+            int jobs = 1;
+            int inlineBudget = 0;
+            for (int i = 0; i < args.length; i += 1) {
+                String arg = args[i];
+                if (arg.equals("--jobs")) {
+                    i += 1;
+                    if (i == args.length || !args[i].matches("[0-9]+") || Integer.parseInt(args[i]) == 0) {
+                        throw new IllegalArgumentException("--jobs must be followed by a positive integer");
+                    }
+                    jobs = Integer.parseInt(args[i]);
+                    continue;
+                } else if (arg.equals("--inline")) {
+                    i += 1;
+                    if (i == args.length || !args[i].matches("[0-9]+")) {
+                        throw new IllegalArgumentException("--inline must be followed by a budget of commands");
+                    }
+                    inlineBudget = Integer.parseInt(args[i]);
+                    continue;
+                } else if (arg.equals("--shared-calls")) {
+                    options.add(Parser.Option.SHARED_CALLS);
+                    continue;
+                } else if (arg.equals("--peephole")) {
+                    options.add(Parser.Option.PEEPHOLE);
+                    continue;
+                } else if (arg.equals("--cache-tos")) {
+                    options.add(Parser.Option.CACHE_TOS);
+                    continue;
+                } else if (arg.equals("--prune")) {
+                    options.add(Parser.Option.PRUNE);
+                    continue;
+                } else if (arg.equals("--source-map")) {
+                    options.add(Parser.Option.SOURCE_MAP);
+                    continue;
+                }
+                Parser parser = new Parser(arg, options, jobs, inlineBudget);
                 parser.translate();
+                System.out.print(parser.outputFile() + ": " + parser.instructionCount() + " instructions");
+                if (options.contains(Parser.Option.PEEPHOLE)) {
+                    System.out.print(" (" + parser.unoptimizedCount() + " before peephole)");
+                }
+                System.out.println();
+                if (parser.inlinedCount() > 0) {
+                    System.out.println("Inlined " + parser.inlinedCount() + " calls");
+                }
+                if (!parser.removedFunctions().isEmpty()) {
+                    // Each Hack instruction is one 16-bit word of ROM
+                    System.out.println("Removed " + parser.removedFunctions().size() + " unreachable functions, "
+                            + parser.removedCount() + " instructions (" + 2 * parser.removedCount() + " bytes): "
+                            + String.join(", ", parser.removedFunctions()));
+                }
             }
         }
     }
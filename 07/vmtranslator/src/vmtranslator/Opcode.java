@@ -0,0 +1,33 @@
+package vmtranslator;
+
+/*
+The VM commands, with the keyword that each one is written as in a .vm file.
+*/
+public enum Opcode {
+    PUSH("push"), POP("pop"),
+    ADD("add"), SUB("sub"), NEG("neg"), EQ("eq"), GT("gt"), LT("lt"), AND("and"), OR("or"), NOT("not"),
+    LABEL("label"), GOTO("goto"), IF_GOTO("if-goto"),
+    FUNCTION("function"), CALL("call"), RETURN("return");
+
+    private static final Opcode[] VALUES = values();
+    private final String keyword;
+
+    Opcode(String keyword) {
+        this.keyword = keyword;
+    }
+
+    public String keyword() {
+        return keyword;
+    }
+
+    /** Returns the opcode whose keyword is line[start, end), or null if there is none */
+    public static Opcode of(String line, int start, int end) {
+        int length = end - start;
+        for (Opcode opcode : VALUES) {
+            if (opcode.keyword.length() == length && line.startsWith(opcode.keyword, start)) {
+                return opcode;
+            }
+        }
+        return null;
+    }
+}
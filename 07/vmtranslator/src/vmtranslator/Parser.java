@@ -1,52 +1,112 @@
 package vmtranslator;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /*
 The Parser iterates through the input .vm file, analyzes each VM command,
 and determines what assembly code to write to the output file.
+The files of a directory are each translated by their own Parser into their own code list, possibly
+in parallel; jump and return labels are scoped by file and function, so the lists only need to be
+concatenated in file order.
 */
 public class Parser {
-    private static final HashMap<String, String> REG_MAP = new HashMap<>(){
-        {
-            put("local", "LCL");
-            put("argument", "ARG");
-            put("this", "THIS");
-            put("that", "THAT");
-        }
-    };
-    private enum Command {
-        PUSH_POP,
-        BRANCHING,
-        FUNCTION,
-        ARITHMETIC
+    /*
+    SHARED_CALLS = each call site sets R13 = nArgs, R14 = f, D = returnAddress and jumps to a single
+    $$CALL routine that pushes the frame; each return jumps to a single $$RETURN routine
+    PEEPHOLE = runs the standard Peephole passes over the generated code, which drops the comments
+    but the SourceMap markers
+    CACHE_TOS = keeps the top of the stack in D across straight-line VM commands
+    PRUNE = leaves out the functions that the CallGraph cannot reach from Sys.init
+    SOURCE_MAP = writes a SourceMap of the ROM addresses of the .asm file next to it, as .map
+    GENERIC_TEMPLATES = writes the generic push and pop of every index, which the specialized ones
+    for small indexes are tested against
+     */
+    public enum Option {
+        SHARED_CALLS, PEEPHOLE, CACHE_TOS, PRUNE, SOURCE_MAP, GENERIC_TEMPLATES
     }
+
     private static final int TMP_OFFSET = 5;
+    /*
+    Lengths of the generic templates for local, argument, this and that, which compute the address
+    of segment[index] from the base register and index: a push loads the value with
+    @SEG D=M @i A=D+A D=M, a pop keeps the address in R13 while it pops the value into D, and a
+    CACHE_TOS pop keeps the value in R14 while it computes the address.
+    */
+    private static final int GENERIC_LOAD = 5, GENERIC_POP = 12, GENERIC_CACHED_POP = 13;
     private static final boolean ENABLE_COMMENTS = true;
+    private static final String CALL_ROUTINE = "$$CALL", RETURN_ROUTINE = "$$RETURN";
 
     private BufferedReader bufferedReader;
-    private final PrintWriter printWriter;
-    private Command commandType;
+    private final PrintWriter printWriter;  // null for the Parser of a single file of the source
+    private final String outputFile;
+    private final Set<Option> options;
+    private final int jobs;
+    private final int inlineBudget;
+    private final List<String> code = new ArrayList<>();
+    private int instructionCount = 0, unoptimizedCount = 0;
+    private boolean hasSysInit = false;
+    private boolean cached = false;     // CACHE_TOS: the top of the stack is in D, not counted by SP
+    private VMCommand command;
     private String currFile;
-    private String currInstruct, currFunction, arg1, arg2, arg3;
+    private String staticFile;          // file of the static segment: currFile, or that of an inlined function
+    private String currInstruct, currFunction;
+    private int lineNumber = 0;
+    private final Map<String, Integer> functionLines = new HashMap<>();  // line of each function command
     private final String parentDirectory;
     private int jumpNum = 0, callNum = 0;
     private final ArrayDeque<String> files = new ArrayDeque<>();
+    private Set<String> reachable;      // PRUNE: the functions to translate, null to translate all
+    private final List<String> removedFunctions = new ArrayList<>();
+    private int removedCount = 0;
+    private int removedStart = -1;      // start in code of the unreachable function being translated
+    private Inliner inliner;            // null if no calls are inlined
+    private int inlinedCount = 0;
 
     public Parser(String source) throws IOException {
+        this(source, EnumSet.noneOf(Option.class));
+    }
+
+    public Parser(String source, Set<Option> options) throws IOException {
+        this(source, options, 1);
+    }
+
+    public Parser(String source, Set<Option> options, int jobs) throws IOException {
+        this(source, options, jobs, 0);
+    }
+
+    /**
+     * Translates the files of a source directory on up to jobs threads, and inlines the calls of the
+     * leaf functions of at most inlineBudget commands; 0 inlines nothing.
+     */
+    public Parser(String source, Set<Option> options, int jobs, int inlineBudget) throws IOException {
         String outputFileName;
+        this.options = options;
+        this.jobs = jobs;
+        this.inlineBudget = inlineBudget;
 
         if (source.endsWith(".vm")) { // one .vm file -> one .asm file
             outputFileName = source.substring(0, source.length() - 3);
-            files.add(source);
+            // Statics and jump labels are scoped by the file name, which must not include the directory
+            File sourceFile = new File(source);
+            files.add(sourceFile.getName());
 
             // Initialize PrintWriter, writes lines to output file with println()
-            parentDirectory = "./";
-            printWriter = new PrintWriter(new BufferedWriter(
-                    new FileWriter(outputFileName + ".asm")));
+            parentDirectory = (sourceFile.getParent() != null) ? sourceFile.getParent() + '/' : "./";
+            outputFile = outputFileName + ".asm";
+            printWriter = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)));
 
         } else { // -> multiple .vm files in a specified folder -> one .asm file
             outputFileName = source;
@@ -55,363 +115,903 @@ public class Parser {
                 String lowercaseName = name.toLowerCase();
                 return lowercaseName.endsWith(".vm");
             };
-            files.addAll(List.of(directoryPath.list(VMFileFilter)));
+            String[] vmFiles = directoryPath.list(VMFileFilter);
+            Arrays.sort(vmFiles);
+            files.addAll(List.of(vmFiles));
 
             parentDirectory = "./" + outputFileName + '/';
-            printWriter = new PrintWriter(new BufferedWriter(
-                    new FileWriter(parentDirectory + outputFileName + ".asm")));
+            outputFile = parentDirectory + directoryPath.getName() + ".asm";
+            printWriter = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)));
         }
     }
 
+    /* The Parser of one file of the source, or of the shared routines, which only fills its code list */
+    private Parser(Set<Option> options, String parentDirectory) {
+        this.options = options;
+        this.jobs = 1;
+        this.inlineBudget = 0;
+        this.parentDirectory = parentDirectory;
+        this.outputFile = null;
+        this.printWriter = null;
+    }
+
     /*
-    Advances the parser one line, setting currInstruction to the next valid instruction.
-    This method skips over comments, i.e., lines that start with //
+    Advances the parser one line, setting currInstruction to the next valid instruction and command
+    to its decoding. This method skips over blank lines and comments, i.e., lines that start with //
     If there are no more valid lines to parse, this.currInstruct = null.
     */
     private void advance() throws IOException {
-        String[] words;
-
         while ((currInstruct = bufferedReader.readLine()) != null) {
-            currInstruct = currInstruct.trim();
-            /*
-            If currInstruction is not empty && does not start with //, then currInstruction must be VM command.
-            Split to list of words about whitespace, then set values of commandType, arg1, arg2.
-            Note: assumes that the input VM file has no errors, i.e., only comments, valid commands, or blank lines
-            */
-            if (!currInstruct.isEmpty() && !currInstruct.startsWith("//")) {
-                words = currInstruct.split("\\s+");
-
-                if (List.of("push", "pop").contains(words[0])) {
-                    commandType = Command.PUSH_POP;
-                    arg1 = words[0];    // push or pop
-                    arg2 = words[1];    // one of the stack segment names
-                    arg3 = words[2];    // positive int
-                } else if (List.of("label", "goto", "if-goto").contains(words[0])) {
-                    commandType = Command.BRANCHING;
-                    arg1 = words[0];    // label, goto, if-goto
-                    arg2 = words[1];    // label name
-                    arg3 = null;
-                } else if (List.of("function", "call").contains(words[0])) {
-                    commandType = Command.FUNCTION;
-                    arg1 = words[0];    // function or call
-                    arg2 = words[1];    // function f
-                    arg3 = words[2];    // nArgs
-                } else if (words[0].equals("return")) {
-                    commandType = Command.FUNCTION;
-                    arg1 = words[0];    // return
-                    arg2 = null;
-                    arg3 = null;
-                } else {
-                    commandType = Command.ARITHMETIC;
-                    arg1 = words[0];    // add, sub, neg, eq, gt, lt, and, or, not
-                    arg2 = null;
-                    arg3 = null;
-                }
+            lineNumber += 1;
+            command = VMCommand.parse(currInstruct);
+            if (command != null) {
+                currInstruct = currInstruct.trim();
                 break;
             }
         }
     }
 
     /*
-    Main method to translate the source vm file into an asm file. Iterates through the input,
-    analyzes each line of instruction, and call appropriate translation method.
+    Main method to translate the source vm file into an asm file. Translates each file with
+    translateFile(), then writes the bootstrap code, the code of the files in order, and the shared
+    call and return routines.
     */
     public void translate() throws IOException {
-        printWriter.println("// Bootstrap code: SP = 256; call Sys.init");
-        printWriter.println("@256");
-        printWriter.println("D=A");
-        printWriter.println("@SP");
-        printWriter.println("M=D");
-        writeFunction("call", "Sys.init", "0");
-        printWriter.println("@Sys.init");
-        printWriter.println("0;JMP");
-
-        // Initialize new bufferReader for each .vm file, initially advance to first valid instruction,
-        // translate corresponding args, goto next instruct, repeat until no more valid lines or EOF
+        if (inlineBudget > 0) {
+            inliner = Inliner.read(parentDirectory, files, inlineBudget);
+        }
+        // Without a Sys.init, there is no telling which functions are called from outside
+        if (options.contains(Option.PRUNE)) {
+            CallGraph graph = CallGraph.read(parentDirectory, files);
+            if (graph.defines("Sys.init")) {
+                reachable = graph.reachableFrom("Sys.init");
+                // Every call of an inlined function is replaced by its body
+                if (inliner != null) {
+                    reachable.removeAll(inliner.names());
+                }
+            }
+        }
+        List<Parser> units = translateFiles();
+        boolean hasFunctions = false;
+        for (Parser unit : units) {
+            hasSysInit |= unit.hasSysInit;
+            hasFunctions |= unit.currFunction != null;
+            removedFunctions.addAll(unit.removedFunctions);
+            removedCount += unit.removedCount;
+            inlinedCount += unit.inlinedCount;
+        }
+
+        // The bootstrap code goes in front of the translated files, only if there is a Sys.init to call
+        if (hasSysInit) {
+            write("// Bootstrap code: SP = 256; call Sys.init");
+            write("@256");
+            write("D=A");
+            write("@SP");
+            write("M=D");
+            writeFunction(Opcode.CALL, "Sys.init", 0);
+            write("@Sys.init");
+            write("0;JMP");
+        }
+        optimize();
+        // Straight-line code must not run into the routines when it ends
+        if (options.contains(Option.SHARED_CALLS) && hasFunctions) {
+            Parser routines = new Parser(options, parentDirectory);
+            routines.functionLines.put(CALL_ROUTINE, 0);
+            routines.functionLines.put(RETURN_ROUTINE, 0);
+            routines.writeCallRoutine();
+            routines.writeReturnRoutine();
+            routines.optimize();
+            units.add(routines);
+        }
+
+        if (options.contains(Option.SOURCE_MAP)) {
+            writeSourceMap(units);
+        }
+        instructionCount = countInstructions(code);
+        for (Parser unit : units) {
+            code.addAll(unit.code);
+            unoptimizedCount += unit.unoptimizedCount;
+            instructionCount += unit.instructionCount;
+        }
+        for (String line : code) {
+            if (!line.startsWith(SourceMap.MARKER)) {
+                printWriter.println(line);
+            }
+        }
+        printWriter.close();
+    }
+
+    /*
+    Writes the SourceMap of the bootstrap code, which is all the code list holds yet, and of the units.
+    */
+    private void writeSourceMap(List<Parser> units) throws IOException {
+        SourceMap sourceMap = new SourceMap();
+        sourceMap.add(code, "-", Map.of());
+        for (Parser unit : units) {
+            sourceMap.add(unit.code, (unit.currFile != null) ? unit.currFile + ".vm" : "-", unit.functionLines);
+        }
+        sourceMap.write(Path.of(sourceMapFile()));
+    }
+
+    /*
+    Translates each file of the source with its own Parser, on up to jobs threads.
+    Returns the Parsers in the order of the files.
+    */
+    private List<Parser> translateFiles() throws IOException {
+        List<Parser> units = new ArrayList<>();
+        if (jobs == 1 || files.size() == 1) {
+            for (String file : files) {
+                Parser unit = new Parser(options, parentDirectory);
+                unit.reachable = reachable;
+                unit.inliner = inliner;
+                unit.translateFile(file);
+                units.add(unit);
+            }
+            return units;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, files.size()));
+        List<Future<Parser>> futures = new ArrayList<>();
         for (String file : files) {
-            bufferedReader = new BufferedReader(new FileReader(parentDirectory + file));
-            currFile = file.substring(0, file.length() - 3);
+            futures.add(executor.submit(() -> {
+                Parser unit = new Parser(options, parentDirectory);
+                unit.reachable = reachable;
+                unit.inliner = inliner;
+                unit.translateFile(file);
+                return unit;
+            }));
+        }
+        executor.shutdown();
+        for (Future<Parser> future : futures) {
+            try {
+                units.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return units;
+    }
+
+    /*
+    Translates one .vm file into this Parser's code list, then optimizes it. Initially advance to the
+    first valid instruction, translate corresponding args, goto next instruct, repeat until no more
+    valid lines or EOF. The code of a function that is not reachable is dropped when it ends.
+    */
+    private void translateFile(String file) throws IOException {
+        bufferedReader = new BufferedReader(new FileReader(parentDirectory + file));
+        currFile = file.substring(0, file.length() - 3);
+        staticFile = currFile;
 
+        advance();
+        while (currInstruct != null) { // null if EOF
+            if (reachable != null && command.opcode() == Opcode.FUNCTION) {
+                flush();
+                dropRemoved();
+                if (!reachable.contains(command.name())) {
+                    removedFunctions.add(command.name());
+                    removedStart = code.size();
+                }
+            }
+            if (options.contains(Option.SOURCE_MAP)) {
+                write(SourceMap.MARKER + lineNumber);
+            }
+            if (ENABLE_COMMENTS) {
+                write("// " + currInstruct);
+            }
+            if (options.contains(Option.CACHE_TOS)) {
+                writeCachedCommand();
+            } else {
+                switch (command.opcode()) {
+                    case PUSH, POP -> writePushPop(command.opcode(), command.segment(), command.index());
+                    case LABEL, GOTO, IF_GOTO -> writeBranching(command.opcode(), command.name());
+                    case FUNCTION, CALL, RETURN -> writeFunction(command.opcode(), command.name(), command.index());
+                    default -> writeArithmetic(command.opcode());
+                }
+            }
             advance();
-            while (currInstruct != null) { // null if EOF
-                if (ENABLE_COMMENTS) {
-                    printWriter.println("// " + currInstruct);
+        }
+        flush();
+        dropRemoved();
+        bufferedReader.close();
+        optimize();
+    }
+
+    /*
+    Drops the code of the unreachable function that ends here, if there is one, and counts its instructions.
+    */
+    private void dropRemoved() {
+        if (removedStart >= 0) {
+            List<String> removed = code.subList(removedStart, code.size());
+            removedCount += countInstructions(removed);
+            removed.clear();
+            removedStart = -1;
+        }
+    }
+
+    /*
+    Counts the instructions of the code list, and runs the peephole optimizer over it if enabled.
+    */
+    private void optimize() {
+        unoptimizedCount = countInstructions(code);
+        if (options.contains(Option.PEEPHOLE)) {
+            Peephole.standard().optimize(code);
+        }
+        instructionCount = countInstructions(code);
+    }
+
+    /** Path of the .asm file written by translate() */
+    public String outputFile() {
+        return outputFile;
+    }
+
+    /** Path of the .map file written by translate() with SOURCE_MAP */
+    public String sourceMapFile() {
+        return outputFile.substring(0, outputFile.length() - 4) + ".map";
+    }
+
+    /** Number of Hack instructions written by translate(), not counting labels and comments */
+    public int instructionCount() {
+        return instructionCount;
+    }
+
+    /** Number of Hack instructions before the peephole optimizer ran */
+    public int unoptimizedCount() {
+        return unoptimizedCount;
+    }
+
+    /** Functions left out by PRUNE, in the order of the files */
+    public List<String> removedFunctions() {
+        return removedFunctions;
+    }
+
+    /** Number of Hack instructions of the functions left out by PRUNE, before the peephole optimizer */
+    public int removedCount() {
+        return removedCount;
+    }
+
+    /** Number of calls replaced by the body of the called function */
+    public int inlinedCount() {
+        return inlinedCount;
+    }
+
+    private static int countInstructions(List<String> lines) {
+        int count = 0;
+        for (String line : lines) {
+            if (!line.startsWith("(") && !line.startsWith("//")) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /*
+    Appends one line of asm code to the instruction list, which translate() writes to the output file.
+    */
+    private void write(String line) {
+        code.add(line);
+    }
+
+    /*
+    CACHE_TOS translation of the current command. While cached is true, the top of the stack is in D
+    instead of RAM, and SP does not count it: a push loads D after spilling the old top, and
+    arithmetic works on D and the word below it. The cache is flushed to RAM before labels, gotos,
+    calls and returns, so every jump target and function is entered with the whole stack in RAM.
+    */
+    private void writeCachedCommand() {
+        switch (command.opcode()) {
+            case PUSH -> {
+                flush();
+                writeLoad(command.segment(), command.index());
+                cached = true;
+            }
+            case POP -> writeCachedPop(command.segment(), command.index());
+            case LABEL, GOTO, IF_GOTO -> {
+                if (command.opcode() == Opcode.IF_GOTO && cached) { // the condition is already in D
+                    write("@" + String.format("%s$%s", currFunction, command.name()));
+                    write("D;JNE");
+                    cached = false;
+                } else {
+                    flush();
+                    writeBranching(command.opcode(), command.name());
                 }
-                switch (commandType) {
-                    case PUSH_POP -> writePushPop(arg1, arg2, arg3);
-                    case BRANCHING -> writeBranching(arg1, arg2);
-                    case FUNCTION -> writeFunction(arg1, arg2, arg3);
-                    case ARITHMETIC -> writeArithmetic(arg1);
-                    default -> {
-                        // Handle unexpected command type
+            }
+            case FUNCTION, CALL, RETURN -> {
+                flush();
+                writeFunction(command.opcode(), command.name(), command.index());
+            }
+            default -> writeCachedArithmetic(command.opcode());
+        }
+    }
+
+    /*
+    Writes the asm code that pushes the cached top of the stack from D to RAM, if it is cached.
+    */
+    private void flush() {
+        if (cached) {
+            writePushD();
+            cached = false;
+        }
+    }
+
+    /*
+    Writes the asm code that makes the top of the stack cached in D, popping it from RAM if needed.
+    */
+    private void fill() {
+        if (!cached) {
+            write("@SP");
+            write("AM=M-1");
+            write("D=M");
+            cached = true;
+        }
+    }
+
+    /*
+    CACHE_TOS version of a pop: the value is taken from D. The target address of local, argument,
+    this and that is computed in D too, so the value waits in R14 meanwhile.
+    */
+    private void writeCachedPop(Segment segment, int index) {
+        fill();
+        if (segment.register() != null && walkIsCheaper(index, 1, GENERIC_CACHED_POP)) {
+            writeWalk(segment, index);
+            write("M=D");
+        } else if (segment.register() != null) {
+            write("@R14");
+            write("M=D");
+            write("@" + segment.register());
+            write("D=M");
+            write("@" + index);
+            write("D=D+A");
+            write("@R13");
+            write("M=D");
+            write("@R14");
+            write("D=M");
+            write("@R13");
+            write("A=M");
+            write("M=D");
+        } else {
+            write("@" + directSymbol(segment, index));
+            write("M=D");
+        }
+        cached = false;
+    }
+
+    /*
+    CACHE_TOS version of writeArithmetic(): y is in D, x is popped from RAM, and the result is left in D.
+    */
+    private void writeCachedArithmetic(Opcode opcode) {
+        fill();
+        switch (opcode) {
+            case NEG -> write("D=-D");
+            case NOT -> write("D=!D");
+            case ADD, SUB, AND, OR, EQ, GT, LT -> {
+                write("@SP");
+                write("AM=M-1");
+                switch (opcode) {
+                    case ADD -> write("D=D+M");
+                    case SUB -> write("D=M-D");
+                    case AND -> write("D=D&M");
+                    case OR -> write("D=D|M");
+                    default -> { // eq, gt, lt: D = x - y, then D = -1 if the comparison holds, else 0
+                        String jumpName = currFile + "$EQ_jump" + jumpNum;
+                        String endName = currFile + "$EQ_end" + jumpNum;
+                        write("D=M-D");
+                        write("@" + jumpName);
+                        write("D;J" + opcode.name());
+                        write("D=0");
+                        write("@" + endName);
+                        write("0;JMP");
+                        write("(" + jumpName + ")");
+                        write("D=-1");
+                        write("(" + endName + ")");
+                        jumpNum += 1;
                     }
                 }
-                advance();
             }
-            bufferedReader.close();
+            default -> throw new IllegalArgumentException("Unexpected arithmetic op");
         }
-        printWriter.close();
     }
 
     /*
     Writes to the output file the asm code that implements the current arithmetic-logical command.
     Cases: [add, sub, and, or], [not, neg], [eq, gt, lt]
     */
-    private void writeArithmetic(String command) {
-        String op, jumpName;
-        if (List.of("add", "sub", "and", "or").contains(command)) { // add, sub, and, or
-            printWriter.println("@SP");
-            printWriter.println("AM=M-1");
-            printWriter.println("D=M");
-            printWriter.println("@SP");
-            printWriter.println("A=M-1");
-            op = switch (command) {
-                case "add" -> "+";
-                case "sub" -> "-";
-                case "and" -> "&";
-                case "or" -> "|";
-                case default -> throw new IllegalArgumentException("Unexpected arithmetic op");
-            };
-            printWriter.println("M=M" + op + "D");
-
-        } else if (List.of("not", "neg").contains(command)) { // not, neg
-            printWriter.println("@SP");
-            printWriter.println("A=M-1");
-            op = switch (command) {
-                case "not" -> "!";
-                case "neg" -> "-";
-                case default -> throw new IllegalArgumentException("Unexpected negation op");
-            };
-            printWriter.println("M=" + op + "M");
-
-        } else if (List.of("eq", "gt", "lt").contains(command)) { // eq, gt, lt
-            jumpName = "EQ_jump" + jumpNum;
-            printWriter.println("@SP");
-            printWriter.println("AM=M-1");
-            printWriter.println("D=M");
-            printWriter.println("A=A-1");
-            printWriter.println("D=M-D");
-            printWriter.println("M=-1");
-            printWriter.println("@" + jumpName);
-            op = switch (command) {
-                case "eq" -> "JEQ";
-                case "gt" -> "JGT";
-                case "lt" -> "JLT";
-                case default -> throw new IllegalArgumentException("Unexpected equality op");
-            };
-            printWriter.println("D;" + op);
-            printWriter.println("@SP");
-            printWriter.println("A=M-1");
-            printWriter.println("M=0");
-            printWriter.println("(" + jumpName + ")");
-            jumpNum += 1;
+    private void writeArithmetic(Opcode opcode) {
+        switch (opcode) {
+            case ADD, SUB, AND, OR -> {
+                write("@SP");
+                write("AM=M-1");
+                write("D=M");
+                write("@SP");
+                write("A=M-1");
+                String op = switch (opcode) {
+                    case ADD -> "+";
+                    case SUB -> "-";
+                    case AND -> "&";
+                    default -> "|";
+                };
+                write("M=M" + op + "D");
+            }
+            case NOT, NEG -> {
+                write("@SP");
+                write("A=M-1");
+                write("M=" + ((opcode == Opcode.NOT) ? "!" : "-") + "M");
+            }
+            case EQ, GT, LT -> {
+                String jumpName = currFile + "$EQ_jump" + jumpNum;
+                write("@SP");
+                write("AM=M-1");
+                write("D=M");
+                write("A=A-1");
+                write("D=M-D");
+                write("M=-1");
+                write("@" + jumpName);
+                write("D;J" + opcode.name());
+                write("@SP");
+                write("A=M-1");
+                write("M=0");
+                write("(" + jumpName + ")");
+                jumpNum += 1;
+            }
+            default -> throw new IllegalArgumentException("Unexpected arithmetic op");
         }
     }
 
     /*
     Writes to the output file the asm code that implements the current push or pop command.
-    arg1 = [pop, push]
-    arg2 = [local, argument, this, that], [pointer, temp], [constant], [static]
-    arg3 = some positive int
-    */
-    private void writePushPop(String arg1, String arg2, String arg3) {
-        String op;
-        if (arg1.equals("push")) {
-            switch (arg2) {
-                case "constant" -> {
-                    printWriter.println("@" + arg3); // arg3 = i
-                    printWriter.println("D=A");
-                }
-                case "pointer" -> {
-                    op = switch (arg3) {
-                        case "0" -> "THIS";
-                        case "1" -> "THAT";
-                        case default -> throw new IllegalArgumentException("Unexpected pointer value");
-                    };
-                    printWriter.println("@" + op);
-                    printWriter.println("D=M");
-                }
-                case "temp" -> {
-                    op = "R" + (Integer.parseInt(arg3) + TMP_OFFSET);
-                    printWriter.println("@" + op);
-                    printWriter.println("D=M");
-                }
-                case "static" -> {
-                    op = currFile + "." + arg3;
-                    printWriter.println("@" + op);
-                    printWriter.println("D=M");
-                }
-                case "argument", "local", "this", "that" -> {
-                    printWriter.println("@" + REG_MAP.get(arg2));
-                    printWriter.println("D=M");
-                    printWriter.println("@" + arg3);
-                    printWriter.println("A=D+A");
-                    printWriter.println("D=M");
-                }
-                case "LCL", "ARG", "THIS", "THAT" -> {  // push LCL, push ARG, push THIS, push THAT
-                    printWriter.println("@" + arg2);
-                    printWriter.println("D=M");
-                }
-                default -> { // some returnAddress
-                    printWriter.println("@" + arg2);
-                    printWriter.println("D=A");
+    */
+    private void writePushPop(Opcode opcode, Segment segment, int index) {
+        if (opcode == Opcode.PUSH) {
+            writeLoad(segment, index);
+            // All push commands end with these 4 lines
+            writePushD();
+
+        } else if (segment.register() != null && walkIsCheaper(index, 4, GENERIC_POP)) {
+            // pop into D, walk to the address, M=D
+            write("@SP");
+            write("AM=M-1");
+            write("D=M");
+            writeWalk(segment, index);
+            write("M=D");
+        } else if (segment.register() != null) { // pop local, argument, this, that
+            write("@" + segment.register());
+            write("D=M");
+            write("@" + index);
+            write("D=D+A");
+            write("@R13");
+            write("M=D");
+            write("@SP");     // These 3 commented lines are in common with other cases,
+            write("AM=M-1");  // but I don't have good way to separate them.
+            write("D=M");     // :-(
+            write("@R13");
+            write("A=M");
+            write("M=D");
+        } else {    // Else case: pointer, temp, static
+            write("@SP");
+            write("AM=M-1");
+            write("D=M");
+            write("@" + directSymbol(segment, index));
+            write("M=D");
+        }
+    }
+
+    /*
+    Writes the asm code that loads the value of segment[index] into D, the first part of a push.
+    */
+    private void writeLoad(Segment segment, int index) {
+        switch (segment) {
+            case CONSTANT -> {
+                if (index <= 1 && !options.contains(Option.GENERIC_TEMPLATES)) {
+                    write("D=" + index);
+                } else {
+                    write("@" + index);
+                    write("D=A");
                 }
             }
-            // All push commands end with these 4 lines
-            printWriter.println("@SP");
-            printWriter.println("M=M+1");
-            printWriter.println("A=M-1");
-            printWriter.println("M=D");
-
-        } else if (arg1.equals("pop")) {
-            if (List.of("argument", "local", "this", "that").contains(arg2)) {
-                printWriter.println("@" + REG_MAP.get(arg2));
-                printWriter.println("D=M");
-                printWriter.println("@" + arg3);
-                printWriter.println("D=D+A");
-                printWriter.println("@R13");
-                printWriter.println("M=D");
-                printWriter.println("@SP");     // These 3 commented lines are in common with other cases,
-                printWriter.println("AM=M-1");  // but I don't have good way to separate them.
-                printWriter.println("D=M");     // :-(
-                printWriter.println("@R13");
-                printWriter.println("A=M");
-                printWriter.println("M=D");
-                return;
-            } else {    // Else case: pointer, temp, static
-                printWriter.println("@SP");
-                printWriter.println("AM=M-1");
-                printWriter.println("D=M");
+            case POINTER, TEMP, STATIC -> {
+                write("@" + directSymbol(segment, index));
+                write("D=M");
             }
-            switch (arg2) {
-                case "pointer" -> {
-                    op = switch (arg3) {
-                        case "0" -> "THIS";
-                        case "1" -> "THAT";
-                        case default -> throw new IllegalArgumentException("Unexpected pointer value");
-                    };
-                    printWriter.println("@" + op);
-                    printWriter.println("M=D");
-                }
-                case "temp" -> {
-                    op = "R" + (Integer.parseInt(arg3) + TMP_OFFSET);
-                    printWriter.println("@" + op);
-                    printWriter.println("M=D");
-                }
-                case "static" -> {
-                    op = currFile + "." + arg3;
-                    printWriter.println("@" + op);
-                    printWriter.println("M=D");
+            default -> { // local, argument, this, that
+                if (walkIsCheaper(index, 1, GENERIC_LOAD)) {
+                    writeWalk(segment, index);
+                } else {
+                    write("@" + segment.register());
+                    write("D=M");
+                    write("@" + index);
+                    write("A=D+A");
                 }
+                write("D=M");
             }
         }
     }
 
+    /*
+    Instruction selection for local, argument, this and that: true if pointing A at segment[index]
+    with writeWalk(), plus the other instructions of the template, is shorter than the generic one.
+    */
+    private boolean walkIsCheaper(int index, int otherInstructions, int genericLength) {
+        if (options.contains(Option.GENERIC_TEMPLATES)) {
+            return false;
+        }
+        int walk = 1 + Math.max(index, 1);
+        return walk + otherInstructions < genericLength;
+    }
+
+    /*
+    Points A at segment[index] without using D: @SEG A=M for index 0, else @SEG A=M+1 followed by
+    index - 1 times A=A+1.
+    */
+    private void writeWalk(Segment segment, int index) {
+        write("@" + segment.register());
+        if (index == 0) {
+            write("A=M");
+        } else {
+            write("A=M+1");
+            for (int i = 1; i < index; i += 1) {
+                write("A=A+1");
+            }
+        }
+    }
+
+    /*
+    Returns the symbol of the RAM word of pointer, temp or static segment[index].
+    */
+    private String directSymbol(Segment segment, int index) {
+        return switch (segment) {
+            case POINTER -> switch (index) {
+                case 0 -> "THIS";
+                case 1 -> "THAT";
+                default -> throw new IllegalArgumentException("Unexpected pointer value");
+            };
+            case TEMP -> "R" + (index + TMP_OFFSET);
+            case STATIC -> staticFile + "." + index;
+            default -> throw new IllegalArgumentException("Unexpected segment " + segment);
+        };
+    }
+
+    /*
+    Pushes the value of the D register onto the stack.
+    */
+    private void writePushD() {
+        write("@SP");
+        write("M=M+1");
+        write("A=M-1");
+        write("M=D");
+    }
+
+    /*
+    Pushes the value or the address of a symbol, for the frame pushed by call: comp is D=M or D=A.
+    */
+    private void writePush(String symbol, String comp) {
+        write("@" + symbol);
+        write(comp);
+        writePushD();
+    }
+
     /*
     Writes to the output file the asm code that implements the current branching command.
-    arg1 command = [label, goto, if-goto]
-    arg2 label = label name
+    opcode = [label, goto, if-goto]
     */
-    private void writeBranching(String command, String label) {
+    private void writeBranching(Opcode opcode, String label) {
         String symbol = String.format("%s$%s", currFunction, label);
-        switch (command) {
-            case "label" -> printWriter.println("(" + symbol + ")");
-            case "goto" -> {  // unconditional jump
-                printWriter.println("@" + symbol);
-                printWriter.println("0;JMP");
+        switch (opcode) {
+            case LABEL -> write("(" + symbol + ")");
+            case GOTO -> {  // unconditional jump
+                write("@" + symbol);
+                write("0;JMP");
             }
-            case "if-goto" -> {  // jump if stack's topmost value is not 0
-                printWriter.println("@SP");
-                printWriter.println("AM=M-1");
-                printWriter.println("D=M");
-                printWriter.println("@" + symbol);
-                printWriter.println("D;JNE");
+            case IF_GOTO -> {  // jump if stack's topmost value is not 0
+                write("@SP");
+                write("AM=M-1");
+                write("D=M");
+                write("@" + symbol);
+                write("D;JNE");
             }
+            default -> throw new IllegalArgumentException("Unexpected branching op");
         }
     }
 
     /*
     Writes to the output file the asm code that implements the current function command.
-    command = [call, function, return]
+    opcode = [call, function, return]; n is nArgs of call and nVars of function
     */
-    private void writeFunction(String command, String label, String nArgs) {
-        String returnAddress = String.format("%s$ret.%d", currFunction, callNum);
-        switch (command) {
-            case "call" -> {
+    private void writeFunction(Opcode opcode, String label, int n) {
+        // Calls outside of any function are scoped by the file instead
+        String scope = (currFunction != null || currFile == null) ? currFunction : currFile;
+        String returnAddress = String.format("%s$ret.%d", scope, callNum);
+        switch (opcode) {
+            case CALL -> {
+                Inliner.Function inlined = (inliner != null) ? inliner.get(label) : null;
+                if (inlined != null) {
+                    writeInline(inlined, n);
+                    return;
+                }
+                if (options.contains(Option.SHARED_CALLS)) {
+                    writeSharedCall(label, n, returnAddress);
+                    this.callNum += 1;
+                    return;
+                }
                 // push returnAddress, LCL, ARG, THIS, THAT
-                writePushPop("push", returnAddress, null);
-                writePushPop("push", "LCL", null);
-                writePushPop("push", "ARG", null);
-                writePushPop("push", "THIS", null);
-                writePushPop("push", "THAT", null);
+                writePush(returnAddress, "D=A");
+                writePush("LCL", "D=M");
+                writePush("ARG", "D=M");
+                writePush("THIS", "D=M");
+                writePush("THAT", "D=M");
                 // ARG = SP - 5 - nArgs
-                printWriter.println("@5");
-                printWriter.println("D=A");
-                printWriter.println("@" + nArgs);
-                printWriter.println("D=D+A");
-                printWriter.println("@SP");
-                printWriter.println("D=M-D");
-                printWriter.println("@ARG");
-                printWriter.println("M=D");
+                write("@5");
+                write("D=A");
+                write("@" + n);
+                write("D=D+A");
+                write("@SP");
+                write("D=M-D");
+                write("@ARG");
+                write("M=D");
                 // LCL = SP
-                printWriter.println("@SP");
-                printWriter.println("D=M");
-                printWriter.println("@LCL");
-                printWriter.println("M=D");
+                write("@SP");
+                write("D=M");
+                write("@LCL");
+                write("M=D");
                 // goto f
-                printWriter.println("@" + label);
-                printWriter.println("0;JMP");
+                write("@" + label);
+                write("0;JMP");
                 // (returnAddress)
-                printWriter.println("(" + returnAddress + ")");
+                write("(" + returnAddress + ")");
                 // Increment this.callNum
                 this.callNum += 1;
             }
-            case "function" -> {
+            case FUNCTION -> {
                 // generate a symbol filePrefix.functionName that labels the entry point of the function's code
                 // At new function block, update currFunction for next potential function VM command
                 this.currFunction = label;
+                hasSysInit |= label.equals("Sys.init");
+                functionLines.put(label, lineNumber);
 
-                printWriter.println("(" + label + ")");
+                write("(" + label + ")");
                 // repeat nVar times for nVar local variables
-                int nVars = Integer.parseInt(nArgs);
-                for (int i = 0; i < nVars; i++) {
-                    writePushPop("push", "constant", "0");
+                for (int i = 0; i < n; i++) {
+                    writePushPop(Opcode.PUSH, Segment.CONSTANT, 0);
+                }
+            }
+            case RETURN -> {
+                if (options.contains(Option.SHARED_CALLS)) {
+                    write("@" + RETURN_ROUTINE);
+                    write("0;JMP");
+                } else {
+                    writeReturn();
                 }
             }
-            case "return" -> {
-                // frame = LCL
-                printWriter.println("@LCL");
-                printWriter.println("D=M");
-                printWriter.println("@frame");
-                printWriter.println("M=D");
-                // retAddress = *(frame - 5)
-                dereference("retAddress", "frame", 5);
-                // *ARG = pop()
-                printWriter.println("@SP");
-                printWriter.println("AM=M-1");
-                printWriter.println("D=M");
-                printWriter.println("@ARG");
-                printWriter.println("A=M");
-                printWriter.println("M=D");
-                // SP = ARG + 1
-                printWriter.println("@ARG");
-                printWriter.println("D=M+1");
-                printWriter.println("@SP");
-                printWriter.println("M=D");
-                // THAT = *(frame - 1);
-                // THIS = *(frame - 2);
-                // ARG = *(frame - 3);
-                // LCL = *(frame - 4)
-                dereference("THAT", "frame", 1);
-                dereference("THIS", "frame", 2);
-                dereference("ARG", "frame", 3);
-                dereference("LCL", "frame", 4);
-                // goto retAddress
-                printWriter.println("@retAddress");
-                printWriter.println("A=M");
-                printWriter.println("0;JMP");
+            default -> throw new IllegalArgumentException("Unexpected function op");
+        }
+    }
+
+    /*
+    Writes the body of an inlined function in place of its call. The call's arguments stay on the
+    stack, followed by the saved THIS and THAT if the body sets them, and the locals, so that with
+    depth values on top of them, argument i is depth + frame - i words below SP. The return writes
+    the return value over the first argument and drops everything above it.
+    */
+    private void writeInline(Inliner.Function function, int nArgs) {
+        List<String> saved = new ArrayList<>();
+        if (function.setsThis()) {
+            saved.add("THIS");
+        }
+        if (function.setsThat()) {
+            saved.add("THAT");
+        }
+        int frame = nArgs + saved.size() + function.nVars();
+        for (String register : saved) {
+            writePush(register, "D=M");
+        }
+        for (int i = 0; i < function.nVars(); i += 1) {
+            writePushPop(Opcode.PUSH, Segment.CONSTANT, 0);
+        }
+
+        staticFile = function.file();
+        int depth = 0;
+        for (VMCommand body : function.body()) {
+            if (ENABLE_COMMENTS) {
+                write("// inlined: " + body);
+            }
+            Segment segment = body.segment();
+            switch (body.opcode()) {
+                case PUSH -> {
+                    if (segment == Segment.ARGUMENT || segment == Segment.LOCAL) {
+                        int below = depth + ((segment == Segment.ARGUMENT) ? frame : function.nVars()) - body.index();
+                        writeLoadBelowSP(below);
+                        writePushD();
+                    } else {
+                        writePushPop(Opcode.PUSH, segment, body.index());
+                    }
+                    depth += 1;
+                }
+                case POP -> {
+                    depth -= 1;
+                    if (segment == Segment.ARGUMENT || segment == Segment.LOCAL) {
+                        int below = depth + ((segment == Segment.ARGUMENT) ? frame : function.nVars()) - body.index();
+                        write("@SP");
+                        write("AM=M-1");
+                        write("D=M");
+                        writeStoreBelowSP(below);
+                    } else {
+                        writePushPop(Opcode.POP, segment, body.index());
+                    }
+                }
+                case NEG, NOT -> writeArithmetic(body.opcode());
+                default -> {
+                    writeArithmetic(body.opcode());
+                    depth -= 1;
+                }
+            }
+        }
+        staticFile = currFile;
+
+        // return: restore THIS and THAT, then move the return value to the first argument
+        if (ENABLE_COMMENTS) {
+            write("// inlined: return");
+        }
+        for (int i = 0; i < saved.size(); i += 1) {
+            writeLoadBelowSP(depth + frame - nArgs - i);
+            write("@" + saved.get(i));
+            write("M=D");
+        }
+        write("@SP");
+        write("AM=M-1");
+        write("D=M");
+        int below = depth - 1 + frame;
+        writeStoreBelowSP(below);
+        if (below == 0) {
+            write("@SP");
+            write("M=M+1");
+        } else if (below > 1) {
+            write("@" + (below - 1));
+            write("D=A");
+            write("@SP");
+            write("M=M-D");
+        }
+        inlinedCount += 1;
+    }
+
+    /*
+    Loads the word below words below SP into D.
+    */
+    private void writeLoadBelowSP(int below) {
+        write("@SP");
+        write("D=M");
+        write("@" + below);
+        write("A=D-A");
+        write("D=M");
+    }
+
+    /*
+    Stores D into the word below words below SP, where A is SP: a short distance is walked down with
+    A=A-1, a long one is computed with D kept in R13.
+    */
+    private void writeStoreBelowSP(int below) {
+        if (below <= 6) {
+            for (int i = 0; i < below; i += 1) {
+                write("A=A-1");
             }
+        } else {
+            write("@R13");
+            write("M=D");
+            write("@SP");
+            write("D=M");
+            write("@" + below);
+            write("D=D-A");
+            write("@R14");
+            write("M=D");
+            write("@R13");
+            write("D=M");
+            write("@R14");
+            write("A=M");
         }
+        write("M=D");
+    }
+
+    /*
+    Call site of SHARED_CALLS mode: R13 = nArgs, R14 = f, D = returnAddress, goto $$CALL.
+    */
+    private void writeSharedCall(String label, int nArgs, String returnAddress) {
+        if (nArgs == 0) {
+            write("@R13");
+            write("M=0");
+        } else {
+            write("@" + nArgs);
+            write("D=A");
+            write("@R13");
+            write("M=D");
+        }
+        write("@" + label);
+        write("D=A");
+        write("@R14");
+        write("M=D");
+        write("@" + returnAddress);
+        write("D=A");
+        write("@" + CALL_ROUTINE);
+        write("0;JMP");
+        write("(" + returnAddress + ")");
+    }
+
+    /*
+    The $$CALL routine: push returnAddress (in D), LCL, ARG, THIS, THAT; ARG = SP - 5 - R13;
+    LCL = SP; goto R14
+    */
+    private void writeCallRoutine() {
+        write("(" + CALL_ROUTINE + ")");
+        writePushD();
+        writePush("LCL", "D=M");
+        writePush("ARG", "D=M");
+        writePush("THIS", "D=M");
+        writePush("THAT", "D=M");
+        // ARG = SP - 5 - nArgs
+        write("@R13");
+        write("D=M");
+        write("@5");
+        write("D=D+A");
+        write("@SP");
+        write("D=M-D");
+        write("@ARG");
+        write("M=D");
+        // LCL = SP
+        write("@SP");
+        write("D=M");
+        write("@LCL");
+        write("M=D");
+        // goto f
+        write("@R14");
+        write("A=M");
+        write("0;JMP");
+    }
+
+    /*
+    The $$RETURN routine, the one copy of writeReturn() in SHARED_CALLS mode.
+    */
+    private void writeReturnRoutine() {
+        write("(" + RETURN_ROUTINE + ")");
+        writeReturn();
+    }
+
+    /*
+    Writes the asm code of a return: restores the caller's frame and jumps to the return address.
+    */
+    private void writeReturn() {
+        // frame = LCL
+        write("@LCL");
+        write("D=M");
+        write("@frame");
+        write("M=D");
+        // retAddress = *(frame - 5)
+        dereference("retAddress", "frame", 5);
+        // *ARG = pop()
+        write("@SP");
+        write("AM=M-1");
+        write("D=M");
+        write("@ARG");
+        write("A=M");
+        write("M=D");
+        // SP = ARG + 1
+        write("@ARG");
+        write("D=M+1");
+        write("@SP");
+        write("M=D");
+        // THAT = *(frame - 1);
+        // THIS = *(frame - 2);
+        // ARG = *(frame - 3);
+        // LCL = *(frame - 4)
+        dereference("THAT", "frame", 1);
+        dereference("THIS", "frame", 2);
+        dereference("ARG", "frame", 3);
+        dereference("LCL", "frame", 4);
+        // goto retAddress
+        write("@retAddress");
+        write("A=M");
+        write("0;JMP");
     }
 
     /*
@@ -419,13 +1019,13 @@ public class Parser {
     For example, if output = retAddress, input = frame, offset = -5, the pseudo-assembly is retAddress = *(frame - 5)
     */
     private void dereference(String output, String input, int offset) {
-        printWriter.println(String.format("// pseudo-assembly: %s = *(%s - %s)", output, input, offset));
-        printWriter.println("@" + input);
-        printWriter.println("D=M");
-        printWriter.println("@" + offset);
-        printWriter.println("A=D-A");
-        printWriter.println("D=M");
-        printWriter.println("@" + output);
-        printWriter.println("M=D");
+        write(String.format("// pseudo-assembly: %s = *(%s - %s)", output, input, offset));
+        write("@" + input);
+        write("D=M");
+        write("@" + offset);
+        write("A=D-A");
+        write("D=M");
+        write("@" + output);
+        write("M=D");
     }
 }
\ No newline at end of file
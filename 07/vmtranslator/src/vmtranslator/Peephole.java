@@ -0,0 +1,305 @@
+package vmtranslator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+The Peephole optimizer rewrites the asm code generated by the Parser, a list of lines, with a
+sequence of passes that each replace short instruction patterns by cheaper equivalents. The passes
+are repeated until none of them changes the code. Labels stay in the list, so a pattern never
+matches across a jump target, and so do the markers of a SourceMap, so that the code of each VM
+command stays between its marker and the next one.
+*/
+public class Peephole {
+    /** A pass rewrites code in place and returns true if it changed anything */
+    public interface Pass {
+        boolean apply(List<String> code);
+    }
+
+    private record Constant(int value, int length) {}
+
+    // The templates of the Parser that push D onto the stack and pop the top of the stack into D
+    private static final List<String> PUSH_D = List.of("@SP", "M=M+1", "A=M-1", "M=D");
+    private static final List<String> POP_D = List.of("@SP", "AM=M-1", "D=M");
+    private static final List<String> BASE_REGISTERS = List.of("@LCL", "@ARG", "@THIS", "@THAT");
+
+    private final List<Pass> passes;
+
+    public Peephole(List<Pass> passes) {
+        this.passes = passes;
+    }
+
+    /** Push/pop fusion, constant folding, then redundant load elimination */
+    public static Peephole standard() {
+        return new Peephole(List.of(Peephole::fusePushPop, Peephole::foldConstants, Peephole::dropRedundantLoads));
+    }
+
+    /**
+     * Removes the comments from code, which would no longer describe it, except SourceMap markers,
+     * then runs the passes until none of them changes the code.
+     */
+    public void optimize(List<String> code) {
+        code.removeIf(line -> line.startsWith("//") && !line.startsWith(SourceMap.MARKER));
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Pass pass : passes) {
+                changed |= pass.apply(code);
+            }
+        }
+    }
+
+    /*
+    A push immediately followed by a pop leaves the value in D and SP unchanged, so both are removed.
+    If the code after the pop reads A, which then pointed at the popped value, A is set to it.
+    A push followed by a pop to local, argument, this or that keeps the value in R14 instead, while
+    the target address is computed.
+    */
+    static boolean fusePushPop(List<String> code) {
+        List<String> out = new ArrayList<>(code.size());
+        boolean changed = false;
+        int i = 0;
+        while (i < code.size()) {
+            if (matches(code, i, PUSH_D) && matches(code, i + 4, POP_D)) {
+                int next = i + 7;
+                if (next < code.size() && !code.get(next).startsWith("@")) {
+                    out.add("@SP");
+                    out.add("A=M");
+                }
+                i = next;
+                changed = true;
+            } else if (matches(code, i, PUSH_D) && isIndirectPop(code, i + 4)) {
+                // @SEG D=M @i D=D+A @R13 M=D, then *R13 = R14
+                out.add("@R14");
+                out.add("M=D");
+                out.addAll(code.subList(i + 4, i + 10));
+                out.add("@R14");
+                out.add("D=M");
+                out.addAll(code.subList(i + 13, i + 16));
+                i += 16;
+                changed = true;
+            } else {
+                out.add(code.get(i));
+                i += 1;
+            }
+        }
+        return replace(code, out, changed);
+    }
+
+    /* Matches the Parser's pop to local, argument, this or that */
+    private static boolean isIndirectPop(List<String> code, int i) {
+        return i + 12 <= code.size()
+                && BASE_REGISTERS.contains(code.get(i))
+                && code.get(i + 1).equals("D=M")
+                && isNumber(code.get(i + 2))
+                && matches(code, i + 3, List.of("D=D+A", "@R13", "M=D"))
+                && matches(code, i + 6, POP_D)
+                && matches(code, i + 9, List.of("@R13", "A=M", "M=D"));
+    }
+
+    /*
+    Folds arithmetic on constants pushed just before it, which push/pop fusion has turned into
+    constant D; arithmetic on the stack top: add/sub 1 becomes M=M+1/M=M-1 and add/sub/or 0 is
+    removed. Constants 0 and 1 are loaded into D without A.
+    */
+    static boolean foldConstants(List<String> code) {
+        List<String> out = new ArrayList<>(code.size());
+        boolean changed = false;
+        int i = 0;
+        while (i < code.size()) {
+            Constant first = constantAt(code, i);
+            if (first != null) {
+                int push = i + first.length();
+                Constant second = matches(code, push, PUSH_D) ? constantAt(code, push + 4) : null;
+                Integer result;
+                // const, push, const, binary op
+                if (second != null && (result = fold(first.value(), second.value(),
+                        lineAt(code, push + 4 + second.length()), lineAt(code, push + 5 + second.length()),
+                        lineAt(code, push + 6 + second.length()))) != null) {
+                    out.addAll(constantCode(result));
+                    out.addAll(PUSH_D);
+                    i = push + 7 + second.length();
+                    changed = true;
+                    continue;
+                }
+                // const, push, unary op
+                if (matches(code, push, PUSH_D) && matches(code, push + 4, List.of("@SP", "A=M-1"))) {
+                    String op = lineAt(code, push + 6);
+                    int value = first.value();
+                    result = op.equals("M=-M") ? Integer.valueOf((short) -value)
+                            : op.equals("M=!M") ? Integer.valueOf((short) ~value) : null;
+                    if (result != null && result != Short.MIN_VALUE) {
+                        out.addAll(constantCode(result));
+                        out.addAll(PUSH_D);
+                        i = push + 7;
+                        changed = true;
+                        continue;
+                    }
+                }
+                // const 0 or 1, binary op on the stack top
+                if (matches(code, push, List.of("@SP", "A=M-1")) && (first.value() == 0 || first.value() == 1)) {
+                    String op = lineAt(code, push + 2);
+                    List<String> replacement = null;
+                    if (first.value() == 1 && (op.equals("M=M+D") || op.equals("M=M-D"))) {
+                        replacement = List.of("@SP", "A=M-1", op.equals("M=M+D") ? "M=M+1" : "M=M-1");
+                    } else if (first.value() == 0 && (op.equals("M=M+D") || op.equals("M=M-D") || op.equals("M=M|D"))) {
+                        replacement = List.of();
+                    } else if (first.value() == 0 && op.equals("M=M&D")) {
+                        replacement = List.of("@SP", "A=M-1", "M=0");
+                    }
+                    if (replacement != null) {
+                        out.addAll(replacement);
+                        i = push + 3;
+                        changed = true;
+                        continue;
+                    }
+                }
+                // @0 D=A and @1 D=A, where A is overwritten next
+                if (first.length() == 2 && (first.value() == 0 || first.value() == 1)
+                        && code.get(i + 1).equals("D=A") && lineAt(code, i + 2).startsWith("@")) {
+                    out.add("D=" + first.value());
+                    i += 2;
+                    changed = true;
+                    continue;
+                }
+            }
+            out.add(code.get(i));
+            i += 1;
+        }
+        return replace(code, out, changed);
+    }
+
+    /* Folds the Parser's @SP A=M-1 M=M+D (or -, &, |) on two constants; null if not encodable */
+    private static Integer fold(int x, int y, String at, String address, String op) {
+        if (!at.equals("@SP") || !address.equals("A=M-1")) {
+            return null;
+        }
+        int result;
+        switch (op) {
+            case "M=M+D" -> result = (short) (x + y);
+            case "M=M-D" -> result = (short) (x - y);
+            case "M=M&D" -> result = x & y;
+            case "M=M|D" -> result = x | y;
+            default -> {
+                return null;
+            }
+        }
+        return (result == Short.MIN_VALUE) ? null : result;
+    }
+
+    /* A constant loaded into D: @n D=A, @n D=-A, @n D=!A, or D=0, D=1, D=-1; null if there is none */
+    private static Constant constantAt(List<String> code, int i) {
+        String line = lineAt(code, i);
+        switch (line) {
+            case "D=0" -> {
+                return new Constant(0, 1);
+            }
+            case "D=1" -> {
+                return new Constant(1, 1);
+            }
+            case "D=-1" -> {
+                return new Constant(-1, 1);
+            }
+        }
+        if (!isNumber(line)) {
+            return null;
+        }
+        int value = Integer.parseInt(line.substring(1));
+        return switch (lineAt(code, i + 1)) {
+            case "D=A" -> new Constant(value, 2);
+            case "D=-A" -> new Constant((short) -value, 2);
+            case "D=!A" -> new Constant((short) ~value, 2);
+            default -> null;
+        };
+    }
+
+    /* The shortest code that sets D to value, which is not -32768 */
+    private static List<String> constantCode(int value) {
+        if (value >= -1 && value <= 1) {
+            return List.of("D=" + value);
+        } else if (value > 0) {
+            return List.of("@" + value, "D=A");
+        }
+        return List.of("@" + (-value), "D=-A");
+    }
+
+    /*
+    Tracks the value of A along straight-line code: an A instruction that loads the value A already
+    holds is removed, as is D=M right after M=D and M=D right after D=M at the same address.
+    @SP A=M-1 right after @SP AM=M-1 D=M is A=A-1, and A=M A=A-1 is A=M-1.
+    */
+    static boolean dropRedundantLoads(List<String> code) {
+        List<String> out = new ArrayList<>(code.size());
+        boolean changed = false;
+        String knownA = null;
+        for (int i = 0; i < code.size(); i += 1) {
+            String line = code.get(i);
+            String previous = out.isEmpty() ? "" : out.get(out.size() - 1);
+
+            if (line.startsWith("(") || line.startsWith(SourceMap.MARKER)) {
+                knownA = null;
+            } else if (line.startsWith("@")) {
+                if (line.equals(knownA)) {
+                    changed = true;
+                    continue;
+                }
+                if (line.equals("@SP") && lineAt(code, i + 1).equals("A=M-1")
+                        && out.size() >= 3 && out.subList(out.size() - 3, out.size()).equals(POP_D)) {
+                    out.add("A=A-1");
+                    i += 1;
+                    knownA = null;
+                    changed = true;
+                    continue;
+                }
+                knownA = line;
+            } else {
+                if ((line.equals("D=M") && previous.equals("M=D")) || (line.equals("M=D") && previous.equals("D=M"))) {
+                    changed = true;
+                    continue;
+                }
+                if (line.equals("A=A-1") && previous.equals("A=M")) {
+                    out.set(out.size() - 1, "A=M-1");
+                    changed = true;
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                if (eq >= 0 && line.substring(0, eq).contains("A")) {
+                    knownA = null;
+                }
+            }
+            out.add(line);
+        }
+        return replace(code, out, changed);
+    }
+
+    private static boolean matches(List<String> code, int i, List<String> pattern) {
+        if (i < 0 || i + pattern.size() > code.size()) {
+            return false;
+        }
+        return code.subList(i, i + pattern.size()).equals(pattern);
+    }
+
+    private static String lineAt(List<String> code, int i) {
+        return (i < code.size()) ? code.get(i) : "";
+    }
+
+    private static boolean isNumber(String line) {
+        if (line.length() < 2 || line.charAt(0) != '@') {
+            return false;
+        }
+        for (int i = 1; i < line.length(); i += 1) {
+            if (!Character.isDigit(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean replace(List<String> code, List<String> out, boolean changed) {
+        if (changed) {
+            code.clear();
+            code.addAll(out);
+        }
+        return changed;
+    }
+}
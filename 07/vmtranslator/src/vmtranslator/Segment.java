@@ -0,0 +1,40 @@
+package vmtranslator;
+
+/*
+The memory segments of push and pop. Local, argument, this and that are addressed through the base
+address in their register; the others have no register.
+*/
+public enum Segment {
+    CONSTANT("constant", null),
+    LOCAL("local", "LCL"), ARGUMENT("argument", "ARG"), THIS("this", "THIS"), THAT("that", "THAT"),
+    POINTER("pointer", null), TEMP("temp", null), STATIC("static", null);
+
+    private static final Segment[] VALUES = values();
+    private final String keyword;
+    private final String register;
+
+    Segment(String keyword, String register) {
+        this.keyword = keyword;
+        this.register = register;
+    }
+
+    public String keyword() {
+        return keyword;
+    }
+
+    /** The register that holds the base address of the segment, null if the segment has none */
+    public String register() {
+        return register;
+    }
+
+    /** Returns the segment whose keyword is line[start, end), or null if there is none */
+    public static Segment of(String line, int start, int end) {
+        int length = end - start;
+        for (Segment segment : VALUES) {
+            if (segment.keyword.length() == length && line.startsWith(segment.keyword, start)) {
+                return segment;
+            }
+        }
+        return null;
+    }
+}
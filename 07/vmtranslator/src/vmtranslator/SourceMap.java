@@ -0,0 +1,118 @@
+package vmtranslator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+A SourceMap maps ranges of ROM addresses of a translated program back to the .vm file, function and
+line they were translated from. The Parser writes a marker comment before the code of each VM
+command, and the map is built from the final code: every instruction is one ROM word, so addresses
+are counted like the assembler does, and a function label starts a range at its function command.
+The peephole optimizer keeps the markers and does not rewrite code across them, so with it the map
+keeps its lines, at the cost of the rewrites that would fuse neighbouring commands.
+
+The .map file has one range per line: start end file function line, with end exclusive and "-" for
+code that is not in a file or a function.
+*/
+public class SourceMap {
+    /** Marker of the VM line whose code follows, e.g. //@12 */
+    public static final String MARKER = "//@";
+
+    public record Entry(int start, int end, String file, String function, int line) {}
+
+    private final List<Entry> entries = new ArrayList<>();
+    private int address = 0;
+    private int start = 0;
+    private String file = "-", function = "-";
+    private int line = 0;
+
+    /**
+     * Maps the instructions of code, translated from file, to the next ROM addresses. functionLines
+     * gives the line of the function command of each function defined in code.
+     */
+    public void add(List<String> code, String file, Map<String, Integer> functionLines) {
+        open(file, "-", 0);
+        for (String codeLine : code) {
+            if (codeLine.startsWith(MARKER)) {
+                open(file, function, Integer.parseInt(codeLine.substring(MARKER.length())));
+            } else if (codeLine.startsWith("(")) {
+                String label = codeLine.substring(1, codeLine.length() - 1);
+                if (functionLines.containsKey(label)) {
+                    open(file, label, functionLines.get(label));
+                }
+            } else if (!codeLine.startsWith("//")) {
+                address += 1;
+            }
+        }
+        open("-", "-", 0);
+    }
+
+    /*
+    Ends the current range at the current address and starts one for the given source, unless the
+    source is the same.
+    */
+    private void open(String file, String function, int line) {
+        if (file.equals(this.file) && function.equals(this.function) && line == this.line) {
+            return;
+        }
+        if (start < address) {
+            entries.add(new Entry(start, address, this.file, this.function, this.line));
+        }
+        start = address;
+        this.file = file;
+        this.function = function;
+        this.line = line;
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /** Returns the range that contains the ROM address, or null if there is none */
+    public Entry find(int address) {
+        int low = 0, high = entries.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Entry entry = entries.get(mid);
+            if (address < entry.start()) {
+                high = mid - 1;
+            } else if (address >= entry.end()) {
+                low = mid + 1;
+            } else {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    public void write(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (Entry entry : entries) {
+                writer.println(entry.start() + " " + entry.end() + " " + entry.file() + " "
+                        + entry.function() + " " + entry.line());
+            }
+        }
+    }
+
+    public static SourceMap read(Path path) throws IOException {
+        SourceMap map = new SourceMap();
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] words = line.split(" ");
+                if (words.length != 5) {
+                    throw new IllegalArgumentException("Invalid source map line: " + line);
+                }
+                map.entries.add(new Entry(Integer.parseInt(words[0]), Integer.parseInt(words[1]),
+                        words[2], words[3], Integer.parseInt(words[4])));
+            }
+        }
+        return map;
+    }
+}
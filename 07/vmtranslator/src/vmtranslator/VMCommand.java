@@ -0,0 +1,94 @@
+package vmtranslator;
+
+/*
+One decoded VM command. segment and index are set for push and pop, name for labels, gotos,
+functions and calls, and index is nVars for function and nArgs for call.
+*/
+public record VMCommand(Opcode opcode, Segment segment, int index, String name) {
+    private static final int MAX_WORDS = 3;
+
+    /**
+     * Decodes one line of a .vm file with a single scan over its chars. Returns null if the line is
+     * blank or a comment; throws IllegalArgumentException if it is not a valid command.
+     */
+    public static VMCommand parse(String line) {
+        int end = line.indexOf("//");
+        if (end < 0) {
+            end = line.length();
+        }
+        // Start and end of each whitespace separated word
+        int[] bounds = new int[2 * MAX_WORDS];
+        int words = 0;
+        int i = 0;
+        while (i < end) {
+            if (Character.isWhitespace(line.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            if (words == MAX_WORDS) {
+                throw new IllegalArgumentException("Too many words in VM command: " + line.trim());
+            }
+            bounds[2 * words] = i;
+            while (i < end && !Character.isWhitespace(line.charAt(i))) {
+                i += 1;
+            }
+            bounds[2 * words + 1] = i;
+            words += 1;
+        }
+        if (words == 0) {
+            return null;
+        }
+
+        Opcode opcode = Opcode.of(line, bounds[0], bounds[1]);
+        if (opcode == null) {
+            throw new IllegalArgumentException("Unknown VM command: " + line.trim());
+        }
+        int expected = switch (opcode) {
+            case PUSH, POP, FUNCTION, CALL -> 3;
+            case LABEL, GOTO, IF_GOTO -> 2;
+            default -> 1;
+        };
+        if (words != expected) {
+            throw new IllegalArgumentException("Wrong number of arguments: " + line.trim());
+        }
+        return switch (opcode) {
+            case PUSH, POP -> {
+                Segment segment = Segment.of(line, bounds[2], bounds[3]);
+                if (segment == null) {
+                    throw new IllegalArgumentException("Unknown segment: " + line.trim());
+                }
+                yield new VMCommand(opcode, segment, parseIndex(line, bounds[4], bounds[5]), null);
+            }
+            case LABEL, GOTO, IF_GOTO -> new VMCommand(opcode, null, 0, line.substring(bounds[2], bounds[3]));
+            case FUNCTION, CALL -> new VMCommand(opcode, null, parseIndex(line, bounds[4], bounds[5]),
+                    line.substring(bounds[2], bounds[3]));
+            default -> new VMCommand(opcode, null, 0, null);
+        };
+    }
+
+    private static int parseIndex(String line, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i += 1) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid index: " + line.trim());
+            }
+            value = value * 10 + (c - '0');
+            if (value > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid index: " + line.trim());
+            }
+        }
+        return value;
+    }
+
+    /** The command as written in a .vm file */
+    @Override
+    public String toString() {
+        return switch (opcode) {
+            case PUSH, POP -> opcode.keyword() + " " + segment.keyword() + " " + index;
+            case LABEL, GOTO, IF_GOTO -> opcode.keyword() + " " + name;
+            case FUNCTION, CALL -> opcode.keyword() + " " + name + " " + index;
+            default -> opcode.keyword();
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package vmtranslator;
+
+import hackemulator.TestScript;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+Checks that the peephole optimizer keeps the lines of a SourceMap. Every test program of 07 and 08
+is translated with SOURCE_MAP, with and without PEEPHOLE, for each combination of the options that
+change the generated code. Both maps must attribute their ranges to the same sequence of VM lines,
+and the optimized program must still pass its script.
+*/
+public class SourceMapTests {
+    private static final List<Set<Parser.Option>> OPTION_SETS = List.of(
+            EnumSet.of(Parser.Option.SOURCE_MAP),
+            EnumSet.of(Parser.Option.SOURCE_MAP, Parser.Option.CACHE_TOS),
+            EnumSet.of(Parser.Option.SOURCE_MAP, Parser.Option.SHARED_CALLS));
+
+    /** The VM line of a range, without its ROM addresses */
+    private record Source(String file, String function, int line) {}
+
+    @Test
+    public void peepholeKeepsLinesTest() throws IOException {
+        List<String> failures = new ArrayList<>();
+        for (Path script : TestPrograms.scripts()) {
+            for (Set<Parser.Option> options : OPTION_SETS) {
+                String failure = check(script, options);
+                if (failure != null) {
+                    failures.add(script + " " + options + ": " + failure);
+                }
+            }
+        }
+        Assert.assertTrue(String.join("\n", failures), failures.isEmpty());
+    }
+
+    /* Returns null if the maps with and without PEEPHOLE have the same lines, else what differs */
+    private static String check(Path script, Set<Parser.Option> options) throws IOException {
+        Set<Parser.Option> peephole = EnumSet.copyOf(options);
+        peephole.add(Parser.Option.PEEPHOLE);
+        List<Source> expected = TestPrograms.run(script, options, SourceMapTests::sources);
+        List<Source> actual = TestPrograms.run(script, peephole, SourceMapTests::sources);
+        if (expected == null) {
+            return "fails without the peephole optimizer";
+        } else if (actual == null) {
+            return "fails with the peephole optimizer";
+        }
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i += 1) {
+            if (!expected.get(i).equals(actual.get(i))) {
+                return "range " + i + " is " + actual.get(i) + ", expected " + expected.get(i);
+            }
+        }
+        return (expected.size() == actual.size()) ? null
+                : actual.size() + " ranges, expected " + expected.size();
+    }
+
+    /* The VM lines of the ranges of the map, in ROM order, or null if the ranges do not cover the program */
+    private static List<Source> sources(Parser parser, TestScript test) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        int address = 0;
+        for (SourceMap.Entry entry : SourceMap.read(Path.of(parser.sourceMapFile())).entries()) {
+            if (entry.start() != address) {
+                return null;
+            }
+            address = entry.end();
+            sources.add(new Source(entry.file(), entry.function(), entry.line()));
+        }
+        return (address == parser.instructionCount()) ? sources : null;
+    }
+}
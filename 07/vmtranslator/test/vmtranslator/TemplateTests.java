@@ -0,0 +1,96 @@
+package vmtranslator;
+
+import hackassembler.WordSink;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Checks that the push and pop templates the Parser selects for small indexes behave like the generic
+ones. Every test program of 07 and 08 is run against its program translated with GENERIC_TEMPLATES
+and without, for each combination of the options that change the generated code around them. Both
+translations must pass the script and leave the same RAM, except for the scratch registers R13-R15.
+The code moves with the templates, so a word that differs also passes if it holds the ROM address
+of the same label in each program, like the return addresses that calls save.
+*/
+public class TemplateTests {
+    private static final List<Set<Parser.Option>> OPTION_SETS = List.of(
+            EnumSet.noneOf(Parser.Option.class),
+            EnumSet.of(Parser.Option.PEEPHOLE),
+            EnumSet.of(Parser.Option.CACHE_TOS),
+            EnumSet.of(Parser.Option.CACHE_TOS, Parser.Option.PEEPHOLE),
+            EnumSet.of(Parser.Option.SHARED_CALLS, Parser.Option.PEEPHOLE));
+    private static final int SCRATCH_START = 13, SCRATCH_END = 16;
+
+    /** The RAM after a run, and the labels at each ROM address of the program */
+    private record Run(short[] ram, Map<Integer, Set<String>> labels) {}
+
+    @Test
+    public void selectedTemplatesBehaveLikeGenericTest() throws IOException {
+        List<String> failures = new ArrayList<>();
+        for (Path script : TestPrograms.scripts()) {
+            for (Set<Parser.Option> options : OPTION_SETS) {
+                String failure = check(script, options);
+                if (failure != null) {
+                    failures.add(script + " " + options + ": " + failure);
+                }
+            }
+        }
+        Assert.assertTrue(String.join("\n", failures), failures.isEmpty());
+    }
+
+    /* Returns null if the generic and the selected templates behave the same, else what differs */
+    private static String check(Path script, Set<Parser.Option> options) throws IOException {
+        Set<Parser.Option> generic = EnumSet.copyOf(options);
+        generic.add(Parser.Option.GENERIC_TEMPLATES);
+        Run expected = run(script, generic);
+        Run actual = run(script, options);
+        if (expected == null) {
+            return "fails with the generic templates";
+        } else if (actual == null) {
+            return "fails with the selected templates";
+        }
+        for (int address = 0; address < expected.ram().length; address += 1) {
+            short expectedWord = expected.ram()[address], actualWord = actual.ram()[address];
+            boolean scratch = address >= SCRATCH_START && address < SCRATCH_END;
+            if (!scratch && expectedWord != actualWord && !sameLabel(expected, expectedWord, actual, actualWord)) {
+                return "RAM[" + address + "] is " + actualWord + ", expected " + expectedWord;
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameLabel(Run expected, short expectedWord, Run actual, short actualWord) {
+        Set<String> labels = new HashSet<>(expected.labels().getOrDefault((int) expectedWord, Set.of()));
+        labels.retainAll(actual.labels().getOrDefault((int) actualWord, Set.of()));
+        return !labels.isEmpty();
+    }
+
+    /* Returns the RAM at the end with the labels of the program, or null if it fails its script */
+    private static Run run(Path script, Set<Parser.Option> options) throws IOException {
+        return TestPrograms.run(script, options, (parser, test) ->
+                new Run(test.cpu().ram().clone(), labels(Path.of(parser.outputFile()))));
+    }
+
+    /* Assembles the program and returns the labels at each ROM address */
+    private static Map<Integer, Set<String>> labels(Path program) throws IOException {
+        hackassembler.Parser assembler = new hackassembler.Parser(Files.newBufferedReader(program),
+                new WordSink.Memory());
+        assembler.assembleOnePass();
+        Map<Integer, Set<String>> labels = new HashMap<>();
+        for (Map.Entry<String, Integer> label : assembler.labels().entrySet()) {
+            labels.computeIfAbsent(label.getValue(), address -> new HashSet<>()).add(label.getKey());
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,85 @@
+package vmtranslator;
+
+import hackemulator.TestScript;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/*
+The test programs of projects 07 and 08, which the tests translate with different options and run
+with their test scripts. A program is translated in a copy of its directory, so that the .asm and
+.out files of the tree are left alone.
+*/
+class TestPrograms {
+    /** Looks at a translated program after its script passed */
+    interface Inspection<T> {
+        T inspect(Parser parser, TestScript test) throws IOException;
+    }
+
+    private TestPrograms() {}
+
+    /** The test scripts under 07 and 08, except those of the VM emulator */
+    static List<Path> scripts() throws IOException {
+        Path root = repositoryRoot();
+        List<Path> scripts = new ArrayList<>();
+        for (String directory : new String[]{"07", "08"}) {
+            try (Stream<Path> paths = Files.walk(root.resolve(directory))) {
+                paths.filter(path -> path.toString().endsWith(".tst") && !path.toString().endsWith("VME.tst"))
+                        .sorted()
+                        .forEach(scripts::add);
+            }
+        }
+        return scripts;
+    }
+
+    /* The directory with 07 and 08, which tests may run from or from below */
+    private static Path repositoryRoot() {
+        Path directory = Path.of("").toAbsolutePath();
+        while (!Files.isDirectory(directory.resolve("07")) || !Files.isDirectory(directory.resolve("08"))) {
+            directory = directory.getParent();
+            if (directory == null) {
+                throw new IllegalStateException("Tests must run inside the repository");
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Translates the program of the script with the options in a copy of its directory and runs the
+     * script there. Returns what inspection finds in the copy, or null if the output differs from
+     * the compare-to file.
+     */
+    static <T> T run(Path script, Set<Parser.Option> options, Inspection<T> inspection) throws IOException {
+        String name = script.getFileName().toString();
+        name = name.substring(0, name.length() - 4);
+        // The Parser takes paths relative to the working directory
+        Path copy = Files.createTempDirectory(Path.of(""), "TestPrograms").resolve(name);
+        try {
+            Files.createDirectory(copy);
+            try (Stream<Path> files = Files.list(script.getParent())) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (Files.isRegularFile(file)) {
+                        Files.copy(file, copy.resolve(file.getFileName()));
+                    }
+                }
+            }
+            Path single = copy.resolve(name + ".vm");
+            Parser parser = new Parser(Files.exists(single) ? single.toString() : copy.toString(), options);
+            parser.translate();
+            TestScript test = new TestScript(copy.resolve(name + ".tst"));
+            return (test.run() == null) ? inspection.inspect(parser, test) : null;
+        } finally {
+            try (Stream<Path> paths = Files.walk(copy.getParent())) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package vmtranslator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/*
+Checks that VMCommand.parse decodes valid commands and rejects invalid ones, in particular indexes
+that do not fit the 15 bits that an A-instruction can load.
+*/
+public class VMCommandTests {
+    @Test
+    public void validCommandsTest() {
+        Assert.assertEquals(new VMCommand(Opcode.PUSH, Segment.CONSTANT, 0, null),
+                VMCommand.parse("push constant 0"));
+        Assert.assertEquals(new VMCommand(Opcode.POP, Segment.LOCAL, 7, null),
+                VMCommand.parse("pop local 7 // comment"));
+        Assert.assertEquals(new VMCommand(Opcode.ADD, null, 0, null), VMCommand.parse("  add  "));
+        Assert.assertEquals(new VMCommand(Opcode.CALL, null, 2, "Math.multiply"),
+                VMCommand.parse("call Math.multiply 2"));
+        Assert.assertNull(VMCommand.parse("// comment"));
+    }
+
+    @Test
+    public void largestIndexTest() {
+        Assert.assertEquals(32767, VMCommand.parse("push constant 32767").index());
+        Assert.assertEquals(32767, VMCommand.parse("function Main.main 32767").index());
+    }
+
+    @Test
+    public void indexAboveLargestIsRejectedTest() {
+        assertRejected("push constant 32768");
+        assertRejected("push constant 40000");
+        assertRejected("push constant 327679");
+        assertRejected("push constant 99999999999");
+        assertRejected("function Main.main 65536");
+        assertRejected("call Math.multiply 100000");
+    }
+
+    @Test
+    public void invalidCommandsTest() {
+        assertRejected("push constant -1");
+        assertRejected("push local 1x");
+        assertRejected("push heap 0");
+        assertRejected("push constant");
+        assertRejected("add 1 2 3");
+    }
+
+    private static void assertRejected(String line) {
+        try {
+            Assert.fail(line + ": accepted as " + VMCommand.parse(line));
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package Core;
+
+import java.util.List;
+
+import static Core.SymbolTable.Scope;
+
+/*
+The nodes of the abstract syntax tree that the CompilationEngine parses a class into, the passes
+rewrite and the CodeGenerator compiles. Nodes are immutable: a pass builds the nodes it changes anew.
+Jack has no operator precedence, so "term (op term)*" is a chain of Binary nodes that leans left,
+and a parenthesized expression is just the expression.
+*/
+public final class Ast {
+    private Ast() {}
+
+    public enum SubroutineType {
+        METHOD, CONSTRUCTOR, FUNCTION
+    }
+
+    /** 'class' name '{' classVarDec* subroutineDec* '}' */
+    public record ClassDec(String name, List<VarDec> classVars, List<Subroutine> subroutines) {}
+
+    /** A static, field or var declaration of one or more names of the same type */
+    public record VarDec(Scope scope, String type, List<String> names) {}
+
+    public record Parameter(String type, String name) {}
+
+    public record Subroutine(SubroutineType kind, String returnType, String name, List<Parameter> parameters,
+                             List<VarDec> locals, List<Statement> statements) {}
+
+    public sealed interface Statement permits Let, If, While, Do, Return {}
+
+    /** let name ('[' index ']')? '=' value; index is null for a variable */
+    public record Let(String name, Expression index, Expression value) implements Statement {}
+
+    /** elseStatements is null without an else */
+    public record If(Expression condition, List<Statement> thenStatements, List<Statement> elseStatements)
+            implements Statement {}
+
+    public record While(Expression condition, List<Statement> statements) implements Statement {}
+
+    public record Do(Call call) implements Statement {}
+
+    /** value is null for a void return */
+    public record Return(Expression value) implements Statement {}
+
+    public sealed interface Expression
+            permits IntConst, StringConst, KeywordConst, Var, ArrayAccess, Unary, Binary, Call, ShiftLeft {}
+
+    /** A constant of 0 to 32767, the only ones the VM can push */
+    public record IntConst(int value) implements Expression {}
+
+    public record StringConst(String value) implements Expression {}
+
+    /** true, false, null or this */
+    public record KeywordConst(String keyword) implements Expression {}
+
+    public record Var(String name) implements Expression {}
+
+    public record ArrayAccess(String name, Expression index) implements Expression {}
+
+    /** op is "-" or "~" */
+    public record Unary(String op, Expression operand) implements Expression {}
+
+    /** op is one of + - * / & | < > = */
+    public record Binary(String op, Expression left, Expression right) implements Expression {}
+
+    /** target.name(arguments), or name(arguments) on this object if target is null */
+    public record Call(String target, String name, List<Expression> arguments) implements Expression {}
+
+    /** operand * 2^amount, which passes make from multiplications; Jack has no syntax for it */
+    public record ShiftLeft(Expression operand, int amount) implements Expression {}
+}
@@ -0,0 +1,156 @@
+package Core;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/*
+Times the tokenization of Jack sources, reading a char at a time from a BufferedReader with boxed
+symbol lookups and a regex for integers as the Tokenizer used to do it against the Tokenizer, and
+reports tokens/s and MB/s.
+Usage: Benchmark [iterations] [directory...], from the repository root; the directories default to
+09, 11 and 12.
+ */
+public class Benchmark {
+    private static final int WARMUP = 3;
+    private static final Set<Character> SYMBOLS = Set.of(
+            '{', '}', '(', ')', '[', ']', '.', ',', ';', '+', '-', '*', '/', '&', '|', '<', '>', '=', '~');
+
+    private record Pair(String token, Tokenizer.TokenType type) {}
+
+    public static void main(String[] args) throws IOException {
+        int iterations = 20;
+        int start = 0;
+        if (args.length > 0 && args[0].matches("[0-9]+")) {
+            iterations = Integer.parseInt(args[0]);
+            start = 1;
+        }
+        String[] directories = (start < args.length)
+                ? List.of(args).subList(start, args.length).toArray(new String[0]) : new String[]{"09", "11", "12"};
+        List<String> files = new ArrayList<>();
+        for (String directory : directories) {
+            try (Stream<Path> paths = Files.walk(Path.of(directory))) {
+                paths.map(Path::toString).filter(path -> path.endsWith(".jack")).sorted().forEach(files::add);
+            }
+        }
+        long chars = 0;
+        for (String file : files) {
+            chars += Files.readString(Path.of(file)).length();
+        }
+
+        int tokens = tableTokenize(files);
+        if (readerTokenize(files) != tokens) {
+            throw new IllegalStateException("The tokenizers disagree on the number of tokens");
+        }
+        for (int i = 0; i < WARMUP; i += 1) {
+            readerTokenize(files);
+            tableTokenize(files);
+        }
+        double reader = time(() -> readerTokenize(files), iterations);
+        double table = time(() -> tableTokenize(files), iterations);
+        System.out.printf("%d files, %d tokens, %.1f KB%n", files.size(), tokens, chars / 1e3);
+        System.out.printf("reader %.2f ms (%.0f tokens/s, %.1f MB/s), table %.2f ms (%.0f tokens/s, %.1f MB/s), %.2fx%n",
+                reader, tokens / reader * 1e3, chars / reader / 1e3, table, tokens / table * 1e3, chars / table / 1e3,
+                reader / table);
+    }
+
+    private interface Task {
+        int run() throws IOException;
+    }
+
+    /* Returns the mean wall time in ms of running task the given number of times */
+    private static double time(Task task, int iterations) throws IOException {
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i += 1) {
+            task.run();
+        }
+        return (System.nanoTime() - begin) / 1e6 / iterations;
+    }
+
+    /* Tokenizes each file, including reading it, and returns the number of tokens */
+    private static int tableTokenize(List<String> files) throws IOException {
+        int tokens = 0;
+        for (String file : files) {
+            Tokenizer tk = new Tokenizer(file);
+            while (tk.hasMoreTokens()) {
+                tokens += 1;
+                tk.advance();
+            }
+        }
+        return tokens;
+    }
+
+    /*
+    The scanning of the Tokenizer before the char-class table, without its comment and '/' quirks:
+    returns the number of tokens, each of which was allocated as a String in a Pair.
+    */
+    private static int readerTokenize(List<String> files) throws IOException {
+        int tokens = 0;
+        for (String file : files) {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            List<Pair> queue = new ArrayList<>();
+            StringBuilder buffer = new StringBuilder();
+            int curr;
+            while ((curr = reader.read()) != -1) {
+                if (curr == '/') {
+                    // A comment or a '/' ends the word before it, like any symbol
+                    flush(buffer, queue);
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '/') {
+                        reader.readLine();
+                        continue;
+                    } else if (next == '*') {
+                        int previous = 0;
+                        while ((next = reader.read()) != -1 && !(previous == '*' && next == '/')) {
+                            previous = next;
+                        }
+                        continue;
+                    }
+                    reader.reset();
+                }
+                if (curr == '"') {
+                    flush(buffer, queue);
+                    while ((curr = reader.read()) != -1 && curr != '"') {
+                        buffer.append((char) curr);
+                    }
+                    queue.add(new Pair(buffer.toString(), Tokenizer.TokenType.stringConstant));
+                    buffer.setLength(0);
+                } else if (Character.isWhitespace(curr)) {
+                    flush(buffer, queue);
+                } else if (SYMBOLS.contains((char) curr)) {
+                    flush(buffer, queue);
+                    queue.add(new Pair(Character.toString(curr), Tokenizer.TokenType.symbol));
+                } else {
+                    buffer.append((char) curr);
+                }
+            }
+            flush(buffer, queue);
+            reader.close();
+            tokens += queue.size();
+        }
+        return tokens;
+    }
+
+    private static void flush(StringBuilder buffer, List<Pair> queue) {
+        if (!buffer.isEmpty()) {
+            String token = buffer.toString();
+            Tokenizer.TokenType type;
+            if (token.matches("\\d+")) {
+                type = Tokenizer.TokenType.integerConstant;
+            } else if (Tokenizer.KEYWORDS.contains(token)) {
+                type = Tokenizer.TokenType.keyword;
+            } else {
+                type = Tokenizer.TokenType.identifier;
+            }
+            queue.add(new Pair(token, type));
+            buffer.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package Core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+The BuildCache remembers, for each class of a directory, the hash of the source it was compiled from,
+the hash of its .vm with a copy of it, the hash of the subroutines it declares and the classes it
+calls. It is kept in the .jackcache directory next to the sources. The source hash covers the
+variant of the compiler too, the passes it runs, so that a build with other passes compiles all.
+
+A class is compiled again when its source changed, or when a class it calls declares different
+subroutines or was removed, since what a call compiles to may depend on what the callee declares.
+A class whose source did not change but whose .vm was deleted or edited gets the cached .vm back.
+*/
+public class BuildCache {
+    public static final String DIRECTORY = ".jackcache";
+    private static final String INDEX = "index";
+    private static final String NONE = "-";
+
+    /* The state of a class after its last successful compilation */
+    private record Entry(String sourceHash, String vmHash, String signatureHash, Set<String> dependencies) {}
+
+    private final Path sourceDirectory;
+    private final String variant;
+    private final Path directory;
+    private final Map<String, Entry> entries = new TreeMap<>(); // by class name
+    private FileTime indexTime;  // last modification of the index when it was read or written
+    private boolean changed = false;  // whether the entries differ from the index
+    /* Last modifications of the source and the .vm of each class when they were last found up to date */
+    private final Map<String, List<FileTime>> checked = new HashMap<>();
+
+    private BuildCache(Path sourceDirectory, String variant) {
+        this.sourceDirectory = sourceDirectory;
+        this.variant = variant;
+        this.directory = sourceDirectory.resolve(DIRECTORY);
+    }
+
+    /**
+     * Reads the cache of the classes in sourceDirectory, which is empty if there is none yet, for
+     * builds by the given variant of the compiler
+     */
+    public static BuildCache load(Path sourceDirectory, String variant) throws IOException {
+        BuildCache cache = new BuildCache(sourceDirectory, variant);
+        Path index = cache.directory.resolve(INDEX);
+        if (!Files.exists(index)) {
+            return cache;
+        }
+        cache.indexTime = Files.getLastModifiedTime(index);
+        try (BufferedReader reader = Files.newBufferedReader(index)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] words = line.split(" ");
+                if (words.length != 5) {
+                    throw new IllegalArgumentException("Invalid build cache line: " + line);
+                }
+                Set<String> dependencies = words[4].equals(NONE) ? Set.of() : new TreeSet<>(List.of(words[4].split(",")));
+                cache.entries.put(words[0], new Entry(words[1], words[2], words[3], dependencies));
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the source files that must be compiled, out of the given ones: those that are new or
+     * changed, and those that call a class whose source was deleted. The .vm of an unchanged class
+     * is restored from the cache if it is missing or differs from the one that was compiled.
+     */
+    public List<String> stale(Collection<String> sourceFiles) throws IOException {
+        Set<String> removed = new HashSet<>();
+        for (String name : entries.keySet()) {
+            if (!Files.exists(sourceDirectory.resolve(name + ".jack"))) {
+                removed.add(name);
+            }
+        }
+        entries.keySet().removeAll(removed);
+        changed |= !removed.isEmpty();
+
+        List<String> stale = new ArrayList<>();
+        for (String file : sourceFiles) {
+            String name = className(file);
+            Entry entry = entries.get(name);
+            if (entry == null || !disjoint(entry.dependencies(), removed)) {
+                stale.add(file);
+            } else if (!times(file).equals(checked.get(name))) {
+                // A cache kept in memory between builds only hashes the files that were modified
+                if (entry.sourceHash().equals(sourceHash(file)) && restore(file, entry)) {
+                    checked.put(name, times(file));
+                } else {
+                    stale.add(file);
+                }
+            }
+        }
+        return stale;
+    }
+
+    /*
+    Makes the .vm of the source file the one of the entry, copying it from the cache if needed.
+    Returns false if the cache does not have it.
+    */
+    private boolean restore(String sourceFile, Entry entry) throws IOException {
+        Path vm = vmFile(sourceFile);
+        if (Files.exists(vm) && hash(vm).equals(entry.vmHash())) {
+            return true;
+        }
+        Path cached = directory.resolve(className(sourceFile) + ".vm");
+        if (!Files.exists(cached) || !hash(cached).equals(entry.vmHash())) {
+            return false;
+        }
+        Files.copy(cached, vm, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    private static boolean disjoint(Set<String> a, Set<String> b) {
+        for (String element : a) {
+            if (b.contains(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the compilation of a source file, with the subroutines its class declares and the
+     * classes it calls, and keeps a copy of its .vm. Returns true if the declared subroutines are not
+     * those of the previous compilation.
+     */
+    public boolean update(String sourceFile, List<String> signatures, Set<String> dependencies) throws IOException {
+        String name = className(sourceFile);
+        Path vm = vmFile(sourceFile);
+        Files.createDirectories(directory);
+        Files.copy(vm, directory.resolve(name + ".vm"), StandardCopyOption.REPLACE_EXISTING);
+
+        Set<String> others = new TreeSet<>(dependencies);
+        others.remove(name);
+        String signatureHash = hash(String.join("\n", signatures).getBytes(StandardCharsets.UTF_8));
+        Entry previous = entries.put(name, new Entry(sourceHash(sourceFile), hash(vm), signatureHash, others));
+        checked.put(name, times(sourceFile));
+        changed = true;
+        return previous == null || !previous.signatureHash().equals(signatureHash);
+    }
+
+    public String variant() {
+        return variant;
+    }
+
+    /** Returns true if the index on disk is the one this cache read or wrote last */
+    public boolean isCurrent() throws IOException {
+        Path index = directory.resolve(INDEX);
+        return Files.exists(index) ? Files.getLastModifiedTime(index).equals(indexTime) : indexTime == null;
+    }
+
+    /** Forgets a class that failed to compile, so that the next build compiles it again */
+    public void remove(String sourceFile) {
+        changed |= entries.remove(className(sourceFile)) != null;
+        checked.remove(className(sourceFile));
+    }
+
+    /** Returns the classes that call the given class */
+    public Set<String> dependents(String className) {
+        Set<String> dependents = new TreeSet<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().dependencies().contains(className)) {
+                dependents.add(entry.getKey());
+            }
+        }
+        return dependents;
+    }
+
+    /** Writes the index of the cache if it changed, and deletes the cached .vm of the classes that were removed */
+    public void save() throws IOException {
+        if (!changed && indexTime != null) {
+            return;
+        }
+        changed = false;
+        Files.createDirectories(directory);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(directory.resolve(INDEX)))) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry e = entry.getValue();
+                String dependencies = e.dependencies().isEmpty() ? NONE : String.join(",", e.dependencies());
+                writer.println(entry.getKey() + " " + e.sourceHash() + " " + e.vmHash() + " "
+                        + e.signatureHash() + " " + dependencies);
+            }
+        }
+        indexTime = Files.getLastModifiedTime(directory.resolve(INDEX));
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".vm") && !entries.containsKey(name.substring(0, name.length() - 3))) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /** The class of a source file, which Jack names after the file */
+    public static String className(String sourceFile) {
+        String name = Path.of(sourceFile).getFileName().toString();
+        return name.substring(0, name.length() - 5);
+    }
+
+    private static Path vmFile(String sourceFile) {
+        return Path.of(sourceFile.substring(0, sourceFile.length() - 5) + ".vm");
+    }
+
+    /* The last modifications of a source file and its .vm, null for a missing file */
+    private static List<FileTime> times(String sourceFile) throws IOException {
+        Path vm = vmFile(sourceFile);
+        return Arrays.asList(Files.getLastModifiedTime(Path.of(sourceFile)),
+                Files.exists(vm) ? Files.getLastModifiedTime(vm) : null);
+    }
+
+    private String sourceHash(String sourceFile) throws IOException {
+        byte[] source = Files.readAllBytes(Path.of(sourceFile));
+        byte[] prefix = (variant + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = Arrays.copyOf(prefix, prefix.length + source.length);
+        System.arraycopy(source, 0, bytes, prefix.length, source.length);
+        return hash(bytes);
+    }
+
+    private static String hash(Path file) throws IOException {
+        try {
+            return hash(Files.readAllBytes(file));
+        } catch (NoSuchFileException e) {
+            return NONE;
+        }
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package Core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.lang.System.exit;
+
+/*
+The Client has a running Server compile Jack programs: it takes the args of Main, prints what the
+build printed and exits with its status. --stop stops the server.
+Usage: Client [--socket path] (--stop | args of Main)
+*/
+public class Client {
+    public static void main(String[] args) throws IOException {
+        Path socket = Server.socketPath(args);
+        if (args.length > 0 && args[0].equals("--socket")) {
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+            request.writeUTF(Path.of("").toAbsolutePath().toString());
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            DataInputStream response = new DataInputStream(Channels.newInputStream(channel));
+            int status = response.readInt();
+            byte[] output = response.readNBytes(response.readInt());
+            System.out.print(new String(output, StandardCharsets.UTF_8));
+            if (status != 0) {
+                exit(status);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package Core;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import Core.Ast.*;
+
+import static Core.SymbolTable.Scope;
+import static Core.VMWriter.Segment;
+import static Core.VMWriter.Segment.*;
+import static Core.VMWriter.Arithmetic.*;
+import static Core.VMWriter.OP_TO_COMMAND;
+import static Core.VMWriter.UNARY_OP_TO_COMMAND;
+
+/* The Core.CodeGenerator walks the syntax tree of a class, fills its symbol tables and writes its VM
+code with the VMWriter. The symbol tables are printed to writer as they are completed. */
+public class CodeGenerator {
+    private final Map<Scope, Segment> scopeToSegment = new HashMap<>() {{
+        put(Scope.STATIC, Segment.STATIC);
+        put(Scope.FIELD, Segment.THIS);
+        put(Scope.VAR, Segment.LOCAL);
+        put(Scope.ARG, Segment.ARGUMENT);
+    }};
+    /* temp 0 holds the value of an array assignment, temp 1 the value a ShiftLeft doubles */
+    private static final int SHIFT_TEMP = 1;
+
+    private final VMWriter vmWriter;
+    private final PrintWriter writer;
+    private final SymbolTable classSymTable;
+    private SymbolTable subSymTable;
+    private String className;
+    private int labelCounter = 0;
+    private final List<String> signatures = new ArrayList<>();  // the subroutines the class declares
+    private final Set<String> calledClasses = new HashSet<>();
+
+    CodeGenerator(VMWriter vmWriter, PrintWriter writer) {
+        this.vmWriter = vmWriter;
+        this.writer = writer;
+        classSymTable = new SymbolTable(writer);
+    }
+
+    /** Returns the subroutines declared by the generated class, as "kind type Class.name nArgs" */
+    public List<String> signatures() {
+        return signatures;
+    }
+
+    /** Returns the classes whose subroutines the generated class calls, including itself */
+    public Set<String> calledClasses() {
+        return calledClasses;
+    }
+
+    /** Writes the VM code of a class */
+    public void generate(ClassDec classDec) {
+        className = classDec.name(); // all subroutines have an implicit instance of this type
+        for (VarDec varDec : classDec.classVars()) {
+            define(classSymTable, varDec);
+        }
+        classSymTable.printSymbolTable(className); // todo: preprocessor directive to enable/disable this
+        for (Subroutine subroutine : classDec.subroutines()) {
+            generateSubroutine(subroutine);
+        }
+    }
+
+    private static void define(SymbolTable table, VarDec varDec) {
+        for (String name : varDec.names()) {
+            table.define(name, varDec.type(), varDec.scope());
+        }
+    }
+
+    /* Fills the symbol table of a subroutine and writes its code */
+    private void generateSubroutine(Subroutine subroutine) {
+        // This is the only time a new subroutine symbol table is made; link class symbol table
+        subSymTable = new SymbolTable(writer, classSymTable);
+        String subroutineName = className + "." + subroutine.name();
+        if (subroutine.kind() == SubroutineType.METHOD) {
+            // Add 'this' to subroutine symbol table, if subroutine is method
+            // According to method call contract, arg 0 is current object
+            subSymTable.define("this", className, Scope.ARG);
+        }
+        for (Parameter parameter : subroutine.parameters()) {
+            subSymTable.define(parameter.name(), parameter.type(), Scope.ARG);
+        }
+        signatures.add(subroutine.kind() + " " + subroutine.returnType() + " " + subroutineName + " "
+                + subSymTable.varCount(Scope.ARG));
+        for (VarDec varDec : subroutine.locals()) {
+            define(subSymTable, varDec);
+        }
+
+        // VM code: function functionName nVars
+        // nVars = number of local variables
+        int nVars = subSymTable.varCount(Scope.VAR);
+        vmWriter.writeFunction(subroutineName, nVars);
+
+        if (subroutine.kind() == SubroutineType.CONSTRUCTOR) {
+            // Allocate enough words for object instance variables.
+            // The allocated size is equal to the number of field variables of current class.
+            int objectSize = classSymTable.varCount(Scope.FIELD);
+            vmWriter.writePush(CONSTANT, objectSize);
+
+            // Memory.alloc pushes base address to stack, which is then popped to POINTER 0
+            // Now, this segment is properly aligned with newly created object
+            vmWriter.writeCall("Memory.alloc", 1);
+            vmWriter.writePop(POINTER, 0);
+        }
+        else if (subroutine.kind() == SubroutineType.METHOD) {
+            // For methods, push the first argument (this) to the stack and pop it to pointer 0.
+            vmWriter.writePush(ARGUMENT, 0);
+            vmWriter.writePop(POINTER, 0);
+        }
+        generateStatements(subroutine.statements());
+        subSymTable.printSymbolTable(subroutineName);
+    }
+
+    private void generateStatements(List<Statement> statements) {
+        for (Statement statement : statements) {
+            if (statement instanceof Let let) {
+                generateLet(let);
+            } else if (statement instanceof If ifStatement) {
+                generateIf(ifStatement);
+            } else if (statement instanceof While whileStatement) {
+                generateWhile(whileStatement);
+            } else if (statement instanceof Do doStatement) {
+                generateCall(doStatement.call()); // resultant placed on stack
+                // VM: no return value, get rid of resultant
+                vmWriter.writePop(TEMP, 0);
+            } else if (statement instanceof Return returnStatement) {
+                if (returnStatement.value() != null) {
+                    generateExpression(returnStatement.value());
+                }
+                else { // no expression -> void method/function. Simply push null value and return this
+                    vmWriter.writePush(CONSTANT, 0);
+                }
+                vmWriter.writeReturn();
+            }
+        }
+    }
+
+    /* A let statement; when the LHS is an array element, its address is computed before the RHS */
+    private void generateLet(Let let) {
+        String varName = let.name();
+        if (let.index() != null) {
+            // LHS is an array index -> push varName, compileExp, then add
+            vmWriter.writePush(scopeToSegment.get(subSymTable.scopeOf(varName)), subSymTable.indexOf(varName));
+            generateExpression(let.index());
+            vmWriter.writeArithmetic(add);
+        }
+        // RHS: expression value is put on stack
+        generateExpression(let.value());
+
+        // VM code: LHS of let statement
+        if (let.index() != null) {
+            vmWriter.writePop(TEMP, 0); // push RHS to temporary storage
+            vmWriter.writePop(POINTER, 1); // set THAT to point to array index
+            vmWriter.writePush(TEMP, 0); //  push RHS back to stack
+            vmWriter.writePop(THAT, 0); // remove from stack and write to the specified array index
+        }
+        else {
+            vmWriter.writePop(scopeToSegment.get(subSymTable.scopeOf(varName)), subSymTable.indexOf(varName));
+        }
+    }
+
+    private void generateIf(If ifStatement) {
+        // Define labels to jump to else block and end
+        String elseLabel = "L" + labelCounter;
+        String endLabel = "L" + (labelCounter + 1);
+        labelCounter += 2;
+
+        generateExpression(ifStatement.condition());
+        vmWriter.writeArithmetic(not); // negate the resultant, which is at top of stack
+        vmWriter.writeIf(elseLabel); // if-goto ELSE
+
+        // Start of IF block
+        generateStatements(ifStatement.thenStatements());
+        vmWriter.writeGoto(endLabel); // goto END
+
+        vmWriter.writeLabel(elseLabel); // label ELSE
+        if (ifStatement.elseStatements() != null) {
+            generateStatements(ifStatement.elseStatements());
+        }
+        // Todo: evaluate need for these two filler instructions, eventually test on user made VM emulator
+        vmWriter.writePush(CONSTANT, 0);
+        vmWriter.writePop(TEMP, 0);
+        vmWriter.writeLabel(endLabel); // label END
+    }
+
+    private void generateWhile(While whileStatement) {
+        // Set labels: one each for while and end
+        String whileLabel = "L" + labelCounter;
+        String endLabel = "L" + (labelCounter + 1);
+        labelCounter += 2;
+
+        vmWriter.writeLabel(whileLabel); // label A
+        generateExpression(whileStatement.condition());
+        vmWriter.writeArithmetic(not); // negate resultant, which is currently on stack
+        vmWriter.writeIf(endLabel); // goto B if true -> skip the statements
+
+        generateStatements(whileStatement.statements());
+        vmWriter.writeGoto(whileLabel); // goto A -> return to expression
+        vmWriter.writeLabel(endLabel); // label B
+    }
+
+    /* Writes the code that leaves the value of the expression on the stack */
+    private void generateExpression(Expression expression) {
+        if (expression instanceof IntConst intConst) {
+            // VM: push the int to stack
+            vmWriter.writePush(CONSTANT, intConst.value());
+        }
+        else if (expression instanceof StringConst stringConst) {
+            // VM: call String constructor, then initialize the new object with the String chars
+            // by generating a sequence of calls to the String method appendChar, one for each char
+            String value = stringConst.value();
+            vmWriter.writePush(CONSTANT, value.length());
+            vmWriter.writeCall("String.new", 1);
+
+            for (int i = 0; i < value.length(); i++) {
+                vmWriter.writePush(CONSTANT, value.charAt(i));
+                vmWriter.writeCall("String.appendChar", 2);
+            }
+        }
+        else if (expression instanceof KeywordConst keywordConst) { // true, false, null, this
+            switch (keywordConst.keyword()) {
+                case "false", "null" -> vmWriter.writePush(CONSTANT, 0);
+                case "this" -> vmWriter.writePush(POINTER, 0);
+                case "true" ->  {
+                    vmWriter.writePush(CONSTANT, 1);
+                    vmWriter.writeArithmetic(neg);
+                }
+            }
+        }
+        else if (expression instanceof Var var) {
+            Segment segment = scopeToSegment.get(subSymTable.scopeOf(var.name()));
+            vmWriter.writePush(segment, subSymTable.indexOf(var.name()));
+        }
+        else if (expression instanceof ArrayAccess access) {
+            Segment segment = scopeToSegment.get(subSymTable.scopeOf(access.name()));
+            vmWriter.writePush(segment, subSymTable.indexOf(access.name()));
+            generateExpression(access.index());
+
+            vmWriter.writeArithmetic(add);
+            vmWriter.writePop(POINTER, 1);
+            vmWriter.writePush(THAT, 0);
+        }
+        else if (expression instanceof Unary unary) {
+            // VM: push exp; unary op
+            generateExpression(unary.operand());
+            vmWriter.writeArithmetic(UNARY_OP_TO_COMMAND.get(unary.op()));
+        }
+        else if (expression instanceof Binary binary) {
+            generateExpression(binary.left());
+            generateExpression(binary.right());
+
+            // VM code: write VM equivalent of current op
+            switch (binary.op()) {
+                case "*" -> vmWriter.writeCall("Math.multiply", 2);
+                case "/" -> vmWriter.writeCall("Math.divide", 2);
+                default -> vmWriter.writeArithmetic(OP_TO_COMMAND.get(binary.op()));
+            }
+        }
+        else if (expression instanceof Call call) {
+            generateCall(call);
+        }
+        else if (expression instanceof ShiftLeft shift) {
+            // VM has no shift: the value is doubled by adding it to itself, from temp storage
+            generateExpression(shift.operand());
+            for (int i = 0; i < shift.amount(); i += 1) {
+                vmWriter.writePop(TEMP, SHIFT_TEMP);
+                vmWriter.writePush(TEMP, SHIFT_TEMP);
+                vmWriter.writePush(TEMP, SHIFT_TEMP);
+                vmWriter.writeArithmetic(add);
+            }
+        }
+    }
+
+    /** Writes a subroutine call, whose result is left on the stack. <p> A call without target is a
+     * method call on the current object. A call on a variable is a method call on the object it
+     * holds, else the target is a class whose function or constructor is called. */
+    private void generateCall(Call call) {
+        if (call.target() == null) {
+            // VM: push 'this' onto stack
+            String subroutineName = className + "." + call.name();
+            calledClasses.add(className);
+            vmWriter.writePush(POINTER, 0);
+
+            // The resultants of the arguments are pushed on stack
+            for (Expression argument : call.arguments()) {
+                generateExpression(argument);
+            }
+            // VM: after all args are pushed on stack, call function
+            vmWriter.writeCall(subroutineName, call.arguments().size() + 1);
+            return;
+        }
+        // If in symbol table, must be varName
+        String target = call.target();
+        boolean isVarName = subSymTable.contains(target);
+        String calleeClassName;
+        if (isVarName) {
+            // VM: push varName onto stack
+            Segment memSegment = scopeToSegment.get(subSymTable.scopeOf(target));
+            vmWriter.writePush(memSegment, subSymTable.indexOf(target));
+            calleeClassName = subSymTable.dataTypeOf(target);
+        }
+        else {
+            // VM: function (i.e., static method), save its name
+            calleeClassName = target;
+        }
+        calledClasses.add(calleeClassName);
+        for (Expression argument : call.arguments()) {
+            generateExpression(argument);
+        }
+        // VM: after all args are pushed on stack, call function
+        // if isVarName, need extra arg for the varName object
+        vmWriter.writeCall(calleeClassName + "." + call.name(), call.arguments().size() + ((isVarName) ? 1 : 0));
+    }
+}
@@ -1,31 +1,20 @@
 package Core;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
+import Core.Ast.*;
+
 import static Core.Tokenizer.TokenType;
 import static Core.Tokenizer.TokenType.*;
 import static Core.SymbolTable.Scope;
-import static Core.VMWriter.Segment;
-import static Core.VMWriter.Segment.*;
-import static Core.VMWriter.Arithmetic.*;
-import static Core.VMWriter.OP_TO_COMMAND;
-import static Core.VMWriter.UNARY_OP_TO_COMMAND;
-
-/* The Core.CompilationEngine should grab tokens from the tokenizer one-by-one, analyze the grammar,
-and emit a structured representation of the source code in a xml file */
+
+/* The Core.CompilationEngine grabs tokens from the tokenizer one-by-one, analyzes the grammar and
+builds the abstract syntax tree of the class. The passes of the PassManager rewrite the tree, and
+the CodeGenerator compiles it to a .vm file. */
 public class CompilationEngine {
-    enum SubroutineType {
-        METHOD, CONSTRUCTOR, FUNCTION
-    }
-    private final Map<Scope, Segment> scopeToSegment = new HashMap<>() {{
-        put(Scope.STATIC, Segment.STATIC);
-        put(Scope.FIELD, Segment.THIS);
-        put(Scope.VAR, Segment.LOCAL);
-        put(Scope.ARG, Segment.ARGUMENT);
-    }};
     private static final Set<String> PRIMITIVES = Set.of("int","char","boolean");
     private static final Set<String> STATEMENTS = Set.of("let","if","while","do","return");
     private static final Set<String> OP = Set.of("+","-","*","/","&","|","<",">","=");
@@ -35,51 +24,79 @@ public class CompilationEngine {
     private final Tokenizer tk;
     private final PrintWriter writer;
     private final VMWriter vmWriter;
-    private final SymbolTable classSymTable;
-    private SymbolTable subSymTable;
-    private String className;
-    private int labelCounter = 0;
+    private final PassManager passes;
+    private final CodeGenerator generator;
 
     /** Build the list of output files */
     public CompilationEngine(String source) throws IOException {
+        this(source, new PassManager());
+    }
+
+    /** Build the list of output files, for a compilation that runs the given passes */
+    public CompilationEngine(String source, PassManager passes) throws IOException {
         tk = new Tokenizer(source);
         String prefix = source.substring(0, source.length() - 5);
         vmWriter = new VMWriter(prefix);
-        writer = new PrintWriter(new BufferedWriter(new FileWriter(prefix + "_SymTable.txt")));
-        classSymTable = new SymbolTable(writer);
+        try {
+            writer = new PrintWriter(new BufferedWriter(new FileWriter(prefix + "_SymTable.txt")));
+        } catch (IOException e) {
+            vmWriter.close();
+            throw e;
+        }
+        this.passes = passes;
+        generator = new CodeGenerator(vmWriter, writer);
     }
 
-    /** Analyze the grammar of the source file and output a structured representation to an XML file */
+    /**
+     * Analyze the grammar of the source file, optimize it and output its VM code to a .vm file.
+     * The output files are closed even if the source has an error, since a Server compiles it
+     * again and again in the same process.
+     */
     public void compile() throws IOException {
-        compileClass();
-        tk.close();
-        writer.close();
-        vmWriter.close();
+        try {
+            ClassDec classDec = compileClass();
+            generator.generate(passes.run(classDec));
+        } finally {
+            tk.close();
+            writer.close();
+            vmWriter.close();
+        }
+    }
+
+    /** Returns the subroutines declared by the compiled class, as "kind type Class.name nArgs" */
+    public List<String> signatures() {
+        return generator.signatures();
+    }
+
+    /** Returns the classes whose subroutines the compiled class calls, including itself */
+    public Set<String> calledClasses() {
+        return generator.calledClasses();
     }
 
-    /** Method for compiling a class, ex., class Main {...} <p>
+    /** Method for parsing a class, ex., class Main {...} <p>
      * Def: "class" className '{' classVarDec* subroutineDec* ')' */
-    private void compileClass() throws IOException {
+    private ClassDec compileClass() throws IOException {
         /* 'class' keyword */
         check("class");
 
         /* className identifier */
-        className = tk.getCurrToken(); // all subroutines have an implicit instance of this type
+        String className = tk.getCurrToken();
         verifyType(identifier);
 
         check("{");
-        compileClassVarDec(); // classVarDec*
-        classSymTable.printSymbolTable(className); // todo: preprocessor directive to enable/disable this
+        List<VarDec> classVars = new ArrayList<>();
+        compileClassVarDec(classVars); // classVarDec*
 
-        compileSubroutineDec(); // subroutineDec*
+        List<Subroutine> subroutines = new ArrayList<>();
+        compileSubroutineDec(subroutines); // subroutineDec*
         check("}");
+        return new ClassDec(className, classVars, subroutines);
     }
 
-    /** Method for compiling static or field (non-static) variables of object. Consists only of
-     * class symbol table entry adding. <p>
+    /** Method for parsing static or field (non-static) variables of object. <p>
      * Def: ('static' | 'field') type varName (',' varName)* ';' <p>
      * ex., field int x, y, z; <br> */
-    private void compileClassVarDec() throws IOException {
+    private void compileClassVarDec(List<VarDec> classVars) throws IOException {
         Scope scopeOf;
         String token = tk.getCurrToken();
 
@@ -101,31 +118,35 @@ public class CompilationEngine {
         String dataTypeOf = token; // all class var decs are of this type
         tk.advance();
 
-        /* varName */
-        // Add to class symbol table - ('static' | 'field') (primitive | className)
-        classSymTable.define(tk.getCurrToken(), dataTypeOf, scopeOf);
+        /* varName (',' varName)* ';' */
+        classVars.add(new VarDec(scopeOf, dataTypeOf, compileVarNames()));
+
+        // 0 or more classVarDec in class -> recursive call
+        compileClassVarDec(classVars);
+    }
+
+    /** Method for parsing the names of a var or class var declaration and the ';' that ends it. <p>
+     * Def: varName (',' varName)* ';' */
+    private List<String> compileVarNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        names.add(tk.getCurrToken());
         verifyType(identifier);
 
         /* Zero or more (',' varName) */
         while (tk.getCurrToken().equals(",")) {
             check(",");
-
-            /* varName */
-            // Add to class symbol table - ('static' | 'field') (primitive | className)
-            classSymTable.define(tk.getCurrToken(), dataTypeOf, scopeOf);
+            names.add(tk.getCurrToken());
             verifyType(identifier);
         }
         check(";");
-
-        // 0 or more classVarDec in class -> recursive call
-        compileClassVarDec();
+        return names;
     }
 
-    /** Method for compiling object routines like constructor, static/non-static methods. <p> Def:
+    /** Method for parsing object routines like constructor, static/non-static methods. <p> Def:
      * ('constructor' | 'function' | 'method') ('void' | type) subroutineName '(' parameterList ')'
      * subroutineBody <p>
      * ex., method void draw(int x, int y) */
-    private void compileSubroutineDec() throws IOException {
+    private void compileSubroutineDec(List<Subroutine> subroutines) throws IOException {
         /* ('constructor' | 'function' | 'method') */
         SubroutineType subType;
         switch (tk.getCurrToken()) {
@@ -141,8 +162,6 @@ public class CompilationEngine {
             default: // Immediately return if not one of the three
                 return;
         }
-        // This is the only time a new subroutine symbol table is made; link class symbol table
-        subSymTable = new SymbolTable(writer, classSymTable);
         tk.advance();
 
         /* type: void, primitive type, or identifier */
@@ -151,47 +170,47 @@ public class CompilationEngine {
         if (!token.equals("void") && !PRIMITIVES.contains(token) && type != identifier) {
             throwRuntimeException("'void', primitive type, or className");
         }
+        String returnType = token;
         tk.advance();
 
         /* subroutineName */
-        String subroutineName = className + "." + tk.getCurrToken();
+        String subroutineName = tk.getCurrToken();
         verifyType(identifier);
 
-        /* '(' parameterList ')' -> compiling the arguments of subroutine */
+        /* '(' parameterList ')' -> the arguments of subroutine */
         check("(");
-        if (subType == SubroutineType.METHOD) {
-            // Add 'this' to subroutine symbol table, if subroutine is method
-            // According to method call contract, arg 0 is current object
-            subSymTable.define("this", className, Scope.ARG);
-        }
-        compileParameterList();
+        List<Parameter> parameters = compileParameterList();
         check(")");
 
-        // '{' varDec* statement* '}' -> declare local vars and execute statements
-        compileSubroutineBody(subroutineName, subType);
-        subSymTable.printSymbolTable(subroutineName);
+        /* '{' varDec* statement* '}' -> declare local vars and execute statements */
+        check("{");
+        List<VarDec> locals = new ArrayList<>();
+        compileVarDec(locals); // 0 or more varDec
+        List<Statement> statements = compileStatements(); // statements (0 or more statement)
+        check("}");
+        subroutines.add(new Subroutine(subType, returnType, subroutineName, parameters, locals, statements));
 
         // 0 or more subroutineDec in class -> recursive call
-        compileSubroutineDec();
+        compileSubroutineDec(subroutines);
     }
 
-    /** Method for compiling 0 or 1 parameterList within subroutineDec i.e., a method for compiling
+    /** Method for parsing 0 or 1 parameterList within subroutineDec i.e., a method for parsing
      * the arguments of a subroutine. <p> Def: ((type varName) (',' type varName)*)? <br>
      * ex., int x, int y, boolean flag */
-    private void compileParameterList() throws IOException {
+    private List<Parameter> compileParameterList() throws IOException {
+        List<Parameter> parameters = new ArrayList<>();
         /* Immediately return if not type -> 0 parameterList */
         String token = tk.getCurrToken();
         TokenType type = tk.getCurrType();
         if (!PRIMITIVES.contains(token) && type != identifier) {
-            return;
+            return parameters;
         }
         /* type: primitive or className */
         String dataType = token;
         tk.advance();
 
         /* varName */
-        // Add first arg to subroutine symbol table
-        subSymTable.define(tk.getCurrToken(), dataType, Scope.ARG);
+        parameters.add(new Parameter(dataType, tk.getCurrToken()));
         verifyType(identifier);
 
         /* 0 or more (',' type varName) */
@@ -207,46 +226,15 @@ public class CompilationEngine {
             tk.advance();
 
             /* varName */
-            // Add next args to subroutine symbol table
-            subSymTable.define(tk.getCurrToken(), dataType, Scope.ARG);
+            parameters.add(new Parameter(dataType, tk.getCurrToken()));
             verifyType(identifier);
         }
+        return parameters;
     }
 
-    /** Method for compiling a subroutine body, the local variable declarations and statements. <br>
-     * Def: { varDec* statement* } */
-    private void compileSubroutineBody(String subroutineName, SubroutineType subType) throws IOException {
-        check("{");
-        compileVarDec(); // 0 or more varDec -> sub symbol table filled with vars
-
-        // VM code: function functionName nVars
-        // nVars = number of local variables
-        int nVars = subSymTable.varCount(Scope.VAR);
-        vmWriter.writeFunction(subroutineName, nVars);
-
-        if (subType == SubroutineType.CONSTRUCTOR) {
-            // Allocate enough words for object instance variables.
-            // The allocated size is equal to the number of field variables of current class.
-            int objectSize = classSymTable.varCount(Scope.FIELD);
-            vmWriter.writePush(CONSTANT, objectSize);
-
-            // Memory.alloc pushes base address to stack, which is then popped to POINTER 0
-            // Now, this segment is properly aligned with newly created object
-            vmWriter.writeCall("Memory.alloc", 1);
-            vmWriter.writePop(POINTER, 0);
-        }
-        else if (subType == SubroutineType.METHOD) {
-            // For methods, push the first argument (this) to the stack and pop it to pointer 0.
-            vmWriter.writePush(ARGUMENT, 0);
-            vmWriter.writePop(POINTER, 0);
-        }
-        compileStatements(); // statements (0 or more statement)
-        check("}");
-    }
-
-    /** Method for compiling variable declarations within a subroutine. <p>
+    /** Method for parsing variable declarations within a subroutine. <p>
      * Def: 'var' type varName (',' varName)* ';' */
-    private void compileVarDec() throws IOException {
+    private void compileVarDec(List<VarDec> locals) throws IOException {
         // Immediately return if not var
         if (!tk.getCurrToken().equals("var")) {
             return;
@@ -262,256 +250,160 @@ public class CompilationEngine {
         }
         tk.advance();
 
-        /* varName identifier */
-        // Add var to subroutine symbol table
-        subSymTable.define(tk.getCurrToken(), dataType, Scope.VAR);
-        verifyType(identifier);
-
-        /* (',' varName)* */
-        while (tk.getCurrToken().equals(",")) {
-            check(",");
-
-            /* varName identifier */
-            // Add var to subroutine symbol table
-            subSymTable.define(tk.getCurrToken(), dataType, Scope.VAR);
-            verifyType(identifier);
-        }
-        check(";");
+        /* varName (',' varName)* ';' */
+        locals.add(new VarDec(Scope.VAR, dataType, compileVarNames()));
 
         // 0 or more varDec in subroutineDec -> recursive call
-        compileVarDec();
+        compileVarDec(locals);
     }
 
-    /** Compile a series of let, if, while, do, or return statements. */
-    private void compileStatements() throws IOException {
+    /** Parse a series of let, if, while, do, or return statements. */
+    private List<Statement> compileStatements() throws IOException {
+        List<Statement> statements = new ArrayList<>();
         String token = tk.getCurrToken();
 
         // If token is one of the valid statement types
         // Implicit assumption that tokenizer advances to next valid token after each call
         while (STATEMENTS.contains(token)) {
-            switch (token) {
+            statements.add(switch (token) {
                 case "let" -> compileLet();
                 case "if" -> compileIf();
                 case "while" -> compileWhile();
                 case "do" -> compileDo();
-                case "return" -> compileReturn();
-            }
+                default -> compileReturn();
+            });
             // Prepare next token
             token = tk.getCurrToken();
         }
+        return statements;
     }
 
-    /** Compile a let statement. Also handles case where LHS is an array, such as a[1]. <p>
+    /** Parse a let statement. Also handles case where LHS is an array, such as a[1]. <p>
      * Def: 'let' varName ('[' expression ']')? '=' expression ';' */
-    private void compileLet() throws IOException {
-        vmWriter.write("// let statement");
+    private Let compileLet() throws IOException {
         check("let");
 
-        /* varName identifier: save a copy of it */
+        /* varName identifier */
         String varName = tk.getCurrToken();
         verifyType(identifier);
 
         /* ( '[' expression ']' )? */
-        boolean leftIsArray = false;
+        Expression index = null;
         if (!tk.getCurrToken().equals("=")) {
-            // LHS is an array index -> push varName, compileExp, then add
-            leftIsArray = true;
-            vmWriter.writePush(
-                    scopeToSegment.get(subSymTable.scopeOf(varName)),
-                    subSymTable.indexOf(varName)
-            );
             check("[");
-            compileExpression();
+            index = compileExpression();
             check("]");
-
-            vmWriter.writeArithmetic(add);
         }
-        // RHS: expression value is put on stack
         check("=");
-        compileExpression();
+        Expression value = compileExpression();
         check(";");
-
-        // VM code: LHS of let statement
-        if (leftIsArray) {
-            vmWriter.writePop(TEMP, 0); // push RHS to temporary storage
-            vmWriter.writePop(POINTER, 1); // set THAT to point to array index
-            vmWriter.writePush(TEMP, 0); //  push RHS back to stack
-            vmWriter.writePop(THAT, 0); // remove from stack and write to the specified array index
-        }
-        else {
-            vmWriter.writePop(
-                    scopeToSegment.get(subSymTable.scopeOf(varName)),
-                    subSymTable.indexOf(varName)
-            );
-        }
+        return new Let(varName, index, value);
     }
 
-    /** Compile an if statement. <p>
+    /** Parse an if statement. <p>
      * Def: 'if' '(' expression ')' '{' statements '}' ('else' '{' statements '}')? */
-    private void compileIf() throws IOException {
-        vmWriter.write("// if statement");
-
-        // Define labels to jump to else block and end
-        String elseLabel = "L" + labelCounter;
-        String endLabel = "L" + (labelCounter + 1);
-        labelCounter += 2;
-
-        /* 'if' '(' expression ')' '{' statements '}' */
+    private If compileIf() throws IOException {
         check("if");
         check("(");
-        compileExpression();
+        Expression condition = compileExpression();
         check(")");
-        vmWriter.writeArithmetic(not); // negate the resultant, which is at top of stack
-        vmWriter.writeIf(elseLabel); // if-goto ELSE
 
-        // Start of IF block
         check("{");
-        compileStatements();
+        List<Statement> thenStatements = compileStatements();
         check("}");
-        vmWriter.writeGoto(endLabel); // goto END
 
         /* ('else' '{' statements '}')? */
-        vmWriter.writeLabel(elseLabel); // label ELSE
+        List<Statement> elseStatements = null;
         if (tk.getCurrToken().equals("else")) {
             check("else");
             check("{");
-            compileStatements();
+            elseStatements = compileStatements();
             check("}");
         }
-        // Todo: evaluate need for these two filler instructions, eventually test on user made VM emulator
-        vmWriter.writePush(CONSTANT, 0);
-        vmWriter.writePop(TEMP, 0);
-        vmWriter.writeLabel(endLabel); // label END
+        return new If(condition, thenStatements, elseStatements);
     }
 
-    /** Compile a while statement. <p> Def: 'while' '(' expression ')' '{' statements '}' */
-    private void compileWhile() throws IOException {
-        vmWriter.write("// while statement");
-
-        // Set labels: one each for while and end
-        String whileLabel = "L" + labelCounter;
-        String endLabel = "L" + (labelCounter + 1);
-        labelCounter += 2;
-
-        vmWriter.writeLabel(whileLabel); // label A
+    /** Parse a while statement. <p> Def: 'while' '(' expression ')' '{' statements '}' */
+    private While compileWhile() throws IOException {
         check("while");
         check("(");
-        compileExpression(); // Should be a boolean statement
+        Expression condition = compileExpression(); // Should be a boolean statement
         check(")");
-        vmWriter.writeArithmetic(not); // negate resultant, which is currently on stack
-        vmWriter.writeIf(endLabel); // goto B if true -> skip compileStatements() block
 
         check("{");
-        compileStatements(); // 0 or more statement
+        List<Statement> statements = compileStatements(); // 0 or more statement
         check("}");
-
-        vmWriter.writeGoto(whileLabel); // goto A -> return to expression
-        vmWriter.writeLabel(endLabel); // label B
+        return new While(condition, statements);
     }
 
-    /** Compile a do statement. <p> Def: 'do' subroutineCall ';' */
-    private void compileDo() throws IOException {
-        vmWriter.write("// do statement");
+    /** Parse a do statement. <p> Def: 'do' subroutineCall ';' */
+    private Do compileDo() throws IOException {
         check("do");
 
         /* subroutineCall */
         String token = tk.getCurrToken();
         tk.advance();
-        String nextToken = tk.getCurrToken();
-        compileSubroutineCall(token, nextToken); // resultant placed on stack
-
-        check(";");
-
-        // VM: no return value, get rid of resultant
-        vmWriter.writePop(TEMP, 0);
+        Call call = compileSubroutineCall(token);
+        check(";"); // also fails if there was no call
+        return new Do(call);
     }
 
-    /** Compile a return statement. <p> Def: 'return' expression? ';' */
-    private void compileReturn() throws IOException {
-        vmWriter.write("// return statement");
+    /** Parse a return statement. <p> Def: 'return' expression? ';' */
+    private Return compileReturn() throws IOException {
         check("return");
 
         /* expression? */
+        Expression value = null;
         if (!tk.getCurrToken().equals(";")) {
-            compileExpression();
-        }
-        else { // no expression -> void method/function. Simply push null value and return this
-            vmWriter.writePush(CONSTANT, 0);
+            value = compileExpression();
         }
         check(";");
-
-        // VM code: return
-        vmWriter.writeReturn();
+        return new Return(value);
     }
 
-    /** Compile an expression. Def: term (op term)* */
-    private void compileExpression() throws IOException {
+    /** Parse an expression. Def: term (op term)* */
+    private Expression compileExpression() throws IOException {
         /* term */
-        compileTerm();
+        Expression expression = compileTerm();
 
-        /* 0 or more (op term) */
+        /* 0 or more (op term), applied from left to right */
         String token = tk.getCurrToken();
         while (OP.contains(token)) {
             String op = token; // store the current op
             tk.advance();
 
-            compileTerm();
+            expression = new Binary(op, expression, compileTerm());
             token = tk.getCurrToken(); // Prepare next token
-
-            // VM code: write VM equivalent of current op
-            switch (op) {
-                case "*" -> vmWriter.writeCall("Math.multiply", 2);
-                case "/" -> vmWriter.writeCall("Math.divide", 2);
-                default -> vmWriter.writeArithmetic(OP_TO_COMMAND.get(op));
-            }
         }
+        return expression;
     }
 
-    /** Compile a term. <p> Def: integerConstant | stringConstant | keywordConstant | varName |
+    /** Parse a term. <p> Def: integerConstant | stringConstant | keywordConstant | varName |
      varName '[' expression ']' | '(' expression ')' | (unaryOp term) | subroutineCall */
-    private void compileTerm() throws IOException {
+    private Expression compileTerm() throws IOException {
         String currToken = tk.getCurrToken(); TokenType type = tk.getCurrType();
 
         if (type == integerConstant) {
-            // VM: push the int to stack
-            vmWriter.writePush(CONSTANT, Integer.parseInt(currToken));
             tk.advance();
+            return new IntConst(Integer.parseInt(currToken));
         }
         else if (type == stringConstant) {
-            // VM: call String constructor, then initialize the new object with the String chars
-            // by generating a sequence of calls to the String method appendChar, one for each char
-            vmWriter.writePush(CONSTANT, currToken.length());
-            vmWriter.writeCall("String.new", 1);
-
-            for (int i = 0; i < currToken.length(); i++) {
-                vmWriter.writePush(CONSTANT, currToken.charAt(i));
-                vmWriter.writeCall("String.appendChar", 2);
-            }
             tk.advance();
+            return new StringConst(currToken);
         }
         else if (KEYWORD_CONST.contains(currToken)) { // true, false, null, this
-            switch (currToken) {
-                case "false", "null" -> vmWriter.writePush(CONSTANT, 0);
-                case "this" -> vmWriter.writePush(POINTER, 0);
-                case "true" ->  {
-                    vmWriter.writePush(CONSTANT, 1);
-                    vmWriter.writeArithmetic(neg);
-                }
-            }
             tk.advance();
+            return new KeywordConst(currToken);
         }
         else if (currToken.equals("(")) { // '(' expression ')'
             check("(");
-            compileExpression();
+            Expression expression = compileExpression();
             check(")");
+            return expression;
         }
         else if (UNARY_OP.contains(currToken)) { // (unaryOp term)
-            String unaryOp = currToken;
             tk.advance();
-
-            // VM: push exp; unary op
-            compileTerm();
-            vmWriter.writeArithmetic(UNARY_OP_TO_COMMAND.get(unaryOp));
+            return new Unary(currToken, compileTerm());
         }
         else if (type == identifier) { // varName | varName '[' expression ']' | subroutineCall
             // Peek ahead to determine next steps
@@ -520,115 +412,74 @@ public class CompilationEngine {
             String nextToken = tk.getCurrToken();
             if (nextToken.equals("(") || nextToken.equals(".")) {
                 // if next token is '(' or '.', must be a subroutine call
-                compileSubroutineCall(currToken, nextToken);
+                return compileSubroutineCall(currToken);
             }
             else if (nextToken.equals("[")) {
                 // If next token is '[', must be varName '[' expression ']'
-                Segment segment = scopeToSegment.get(subSymTable.scopeOf(currToken));
-                vmWriter.writePush(segment, subSymTable.indexOf(currToken));
-
                 check("[");
-                compileExpression();
+                Expression index = compileExpression();
                 check("]");
-
-                vmWriter.writeArithmetic(add);
-                vmWriter.writePop(POINTER, 1);
-                vmWriter.writePush(THAT, 0);
+                return new ArrayAccess(currToken, index);
             }
-            else {
-                // else, must be varName
-                Segment segment = scopeToSegment.get(subSymTable.scopeOf(currToken));
-                vmWriter.writePush(segment, subSymTable.indexOf(currToken));
-            }
-        }
-        else {
-            throwRuntimeException("integerConstant, stringConstant, keywordConstant, " +
-                    "varName, '(', unaryOp, subroutineCall");
+            // else, must be varName
+            return new Var(currToken);
         }
+        throwRuntimeException("integerConstant, stringConstant, keywordConstant, " +
+                "varName, '(', unaryOp, subroutineCall");
+        return null;
     }
 
-    /** Compiles a subroutine, used by compileDo and compileTerm. <p> Def: subroutineName
+    /** Parses a subroutine call whose first token was currToken, or returns null if the current
+     * token is neither '(' nor '.'. Used by compileDo and compileTerm. <p> Def: subroutineName
      * '(' expressionList ')' | (className | varName) '.' subroutineName '(' expressionList ')' */
-    private void compileSubroutineCall(String currToken, String nextToken) throws IOException {
+    private Call compileSubroutineCall(String currToken) throws IOException {
         /*
         Def: subroutineName '(' expressionList ')'
         Has to be method operating on current object, i.e., 'this'
         ex: g(2, y, -5, -z)
         */
-        if (nextToken.equals("(")) {
-            // VM: push 'this' onto stack
-            String subroutineName = className + "." + currToken;
-            vmWriter.writePush(POINTER, 0);
-
-            /* '(' expressionList ')' */
-            // The resultants of compileExpressionList() are pushed on stack.
-            // The expression list is the inputted arguments of the subroutine.
+        if (tk.getCurrToken().equals("(")) {
             check("(");
-            int nArgs = compileExpressionList();
+            List<Expression> arguments = compileExpressionList();
             check(")");
-
-            // VM: after all args are pushed on stack, call function
-            vmWriter.writeCall(subroutineName, nArgs + 1);
+            return new Call(null, currToken, arguments);
         }
         /*
         Def: (className | varName) '.' subroutineName '(' expressionList ')'
         Can either be method, function, or constructor.
-        A constructor is a special type of function.
         ex: Memory.deAlloc(this), p1.distance(p2)
         */
-        else if (nextToken.equals(".")) {
-            // If in symbol table, must be varName
-            boolean isVarName = subSymTable.contains(currToken);
-            String calleeClassName;
-
-            /* (varName | className) */
-            if (isVarName) {
-                // VM: push varName onto stack
-                Segment memSegment = scopeToSegment.get(subSymTable.scopeOf(currToken));
-                vmWriter.writePush(memSegment, subSymTable.indexOf(currToken));
-                calleeClassName = subSymTable.dataTypeOf(currToken);
-            }
-            else {
-                // VM: function (i.e., static method), save its name
-                calleeClassName = currToken;
-            }
+        else if (tk.getCurrToken().equals(".")) {
             check(".");
 
             /* subroutineName */
-            currToken = tk.getCurrToken();
-            String subroutineName = calleeClassName + "." + currToken;
+            String subroutineName = tk.getCurrToken();
             verifyType(identifier);
 
-            /* '(' expressionList ')' */
-            // The resultants of compileExpressionList() are pushed on stack.
-            // The expression list is the inputted arguments of the subroutine.
             check("(");
-            int nArgs = compileExpressionList();
+            List<Expression> arguments = compileExpressionList();
             check(")");
-
-            // VM: after all args are pushed on stack, call function
-            // if isVarName, need extra arg for the varName object
-            vmWriter.writeCall(subroutineName, nArgs + ((isVarName) ? 1 : 0));
+            return new Call(currToken, subroutineName, arguments);
         }
+        return null;
     }
 
-    /** Compile an expression list. Only found when inputting arguments into a subroutine. <p>
+    /** Parse an expression list. Only found when inputting arguments into a subroutine. <p>
      * Def: ( expression (',' expression)* )? */
-    private int compileExpressionList() throws IOException {
+    private List<Expression> compileExpressionList() throws IOException {
+        List<Expression> expressions = new ArrayList<>();
         // Immediately return if closing bracket (no expressions)
         if (tk.getCurrToken().equals(")")) {
-            return 0;
+            return expressions;
         }
-        compileExpression();
-        int numExpressions = 1;
+        expressions.add(compileExpression());
 
         // 0 or more (',' expression)
         while (tk.getCurrToken().equals(",")) {
             check(",");
-            compileExpression();
-            numExpressions += 1;
+            expressions.add(compileExpression());
         }
-        return numExpressions;
+        return expressions;
     }
 
     /** Helper method for checking for specific strings; throws exception if mismatch. */
@@ -669,4 +520,4 @@ public class CompilationEngine {
         }
         tk.advance();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package Core;
+
+import Core.Ast.*;
+
+/*
+Replaces the unary and binary operations on constants by their value, computed in the 16-bit two's
+complement arithmetic of the Hack platform. A comparison is only folded when x - y does not
+overflow, since the VM translator compares by the sign of x - y and would disagree otherwise, and a
+division only when the OS would not fail or overflow on it. The VM can only push 0 to 32767, so a
+negative value is the negation of its absolute value, and -32768 is ~32767.
+*/
+public class ConstantFolding implements Pass {
+    private static final int TRUE = -1, FALSE = 0;
+
+    @Override
+    public String name() {
+        return "fold";
+    }
+
+    @Override
+    public Expression rewrite(Expression expression) {
+        if (!(expression instanceof Unary) && !(expression instanceof Binary)) {
+            return expression;
+        }
+        Integer value = valueOf(expression);
+        if (value == null) {
+            return expression;
+        }
+        Expression constant = constant(value);
+        return constant.equals(expression) ? expression : constant;
+    }
+
+    /** Returns the 16-bit value of a constant expression, or null if it is not one that folds */
+    static Integer valueOf(Expression expression) {
+        if (expression instanceof IntConst e) {
+            return (int) (short) e.value();
+        } else if (expression instanceof KeywordConst e) {
+            return switch (e.keyword()) {
+                case "true" -> TRUE;
+                case "false", "null" -> FALSE;
+                default -> null; // this
+            };
+        } else if (expression instanceof Unary e) {
+            Integer operand = valueOf(e.operand());
+            if (operand == null) {
+                return null;
+            }
+            return (int) (short) (e.op().equals("-") ? -operand : ~operand);
+        } else if (expression instanceof Binary e) {
+            Integer x = valueOf(e.left());
+            Integer y = (x == null) ? null : valueOf(e.right());
+            if (y == null) {
+                return null;
+            }
+            boolean overflows = x - y != (short) (x - y);
+            return switch (e.op()) {
+                case "+" -> (int) (short) (x + y);
+                case "-" -> (int) (short) (x - y);
+                case "*" -> (int) (short) (x * y);
+                case "/" -> (y == 0 || x == Short.MIN_VALUE || y == Short.MIN_VALUE) ? null : x / y;
+                case "&" -> x & y;
+                case "|" -> x | y;
+                case "=" -> x.equals(y) ? TRUE : FALSE;
+                case "<" -> overflows ? null : (x < y) ? TRUE : FALSE;
+                case ">" -> overflows ? null : (x > y) ? TRUE : FALSE;
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    /** The expression that pushes the 16-bit value */
+    static Expression constant(int value) {
+        if (value >= 0) {
+            return new IntConst(value);
+        } else if (value == Short.MIN_VALUE) {
+            return new Unary("~", new IntConst(Short.MAX_VALUE));
+        }
+        return new Unary("-", new IntConst(-value));
+    }
+}
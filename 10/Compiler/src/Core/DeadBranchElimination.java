@@ -0,0 +1,45 @@
+package Core;
+
+import java.util.List;
+
+import Core.Ast.*;
+
+/*
+Removes the branches that a constant condition never takes. The generated code enters the
+statements of an if or a while when the condition is true, -1, and no other value: it jumps away
+when "not condition" is not 0. So if (false) is replaced by its else statements, if (true) by its
+then statements, and while (false) is removed. Conditions are only known constant after
+ConstantFolding.
+*/
+public class DeadBranchElimination implements Pass {
+    private static final int TRUE = -1;
+
+    @Override
+    public String name() {
+        return "dead-branches";
+    }
+
+    @Override
+    public List<Statement> statement(Statement statement) {
+        List<Statement> rewritten = Pass.super.statement(statement);
+        if (rewritten.size() != 1) {
+            return rewritten;
+        }
+        Statement s = rewritten.get(0);
+        if (s instanceof If ifStatement) {
+            Integer condition = ConstantFolding.valueOf(ifStatement.condition());
+            if (condition == null) {
+                return rewritten;
+            } else if (condition == TRUE) {
+                return ifStatement.thenStatements();
+            }
+            return (ifStatement.elseStatements() == null) ? List.of() : ifStatement.elseStatements();
+        } else if (s instanceof While whileStatement) {
+            Integer condition = ConstantFolding.valueOf(whileStatement.condition());
+            if (condition != null && condition != TRUE) {
+                return List.of();
+            }
+        }
+        return rewritten;
+    }
+}
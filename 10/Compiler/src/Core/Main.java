@@ -3,34 +3,203 @@ package Core;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.System.exit;
 
 public class Main {
+    /* Outcome of compiling one class: wall time, the error if it failed, and the compiler otherwise */
+    private record Result(String file, long nanos, Exception error, CompilationEngine compiler) {}
+
     public static void main(String[] args) throws IOException, InterruptedException {
-        if (args.length != 1) {
-            System.out.println("Must have only one argument that is either a .jack file or directory.");
-            exit(-1);
+        /*
+        The arg is a .jack file or a directory of .jack files, each compiled to its own .vm file.
+        --jobs N compiles the classes on N threads and prints the time of each class.
+        --incremental only compiles the classes that changed since the last build, and the classes
+        that call a class whose subroutines changed, using the BuildCache next to the sources.
+        --optimize runs the passes of PassManager.optimizing() over the syntax tree of each class.
+        */
+        int status = build(args, Path.of(""), System.out, null);
+        if (status != 0) {
+            exit(status);
+        }
+    }
+
+    /**
+     * Compiles as the command line args ask, with relative paths resolved against workingDirectory,
+     * and prints to out. The build caches of --incremental are taken from caches and put back there
+     * if it is not null, else read from their directory. Returns the exit status.
+     */
+    public static int build(String[] args, Path workingDirectory, PrintStream out, Map<Path, BuildCache> caches)
+            throws IOException, InterruptedException {
+        int jobs = 0;
+        boolean incremental = false;
+        PassManager passes = new PassManager();
+        String source = null;
+        for (int i = 0; i < args.length; i += 1) {
+            if (args[i].equals("--incremental")) {
+                incremental = true;
+            } else if (args[i].equals("--optimize")) {
+                passes = PassManager.optimizing();
+            } else if (args[i].equals("--jobs")) {
+                i += 1;
+                if (i == args.length || !args[i].matches("[0-9]+") || Integer.parseInt(args[i]) == 0) {
+                    throw new IllegalArgumentException("--jobs must be followed by a positive integer");
+                }
+                jobs = Integer.parseInt(args[i]);
+            } else if (source == null) {
+                source = args[i];
+            } else {
+                source = null;
+                break;
+            }
+        }
+        if (source == null) {
+            out.println("Must have only one argument that is either a .jack file or directory.");
+            return -1;
         }
+        source = workingDirectory.resolve(source).toString();
         ArrayDeque<String> sourceFiles = new ArrayDeque<>();
-        if (args[0].endsWith(".jack")) { // If the argument is a .jack file, add it to the deque
-            sourceFiles.add(args[0]);
+        if (source.endsWith(".jack")) { // If the argument is a .jack file, add it to the deque
+            sourceFiles.add(source);
         }
         else { // If the argument is a directory, add all .jack files in the directory to the deque
-            File directory = new File(args[0]);
+            File directory = new File(source);
             FilenameFilter jackFilter = (dir, name) -> name.toLowerCase().endsWith(".jack");
             sourceFiles.addAll(Arrays.stream(Objects.requireNonNull(directory.listFiles(jackFilter)))
                     .map(File::getPath).toList());
         }
-        /* Iterate through sourceFiles and compile */
+
+        long begin = System.nanoTime();
+        if (!incremental) {
+            return finish(compile(sourceFiles, passes, jobs), System.nanoTime() - begin, jobs, out);
+        }
+
+        Path directory = source.endsWith(".jack") ? Path.of(source).toAbsolutePath().getParent() : Path.of(source);
+        BuildCache cache = (caches == null) ? null : caches.get(directory.toAbsolutePath());
+        // The code of a class depends on the passes too
+        String variant = String.join(",", passes.passes().stream().map(Pass::name).toList());
+        if (cache == null || !cache.isCurrent() || !cache.variant().equals(variant)) {
+            cache = BuildCache.load(directory, variant);
+        }
+        List<String> batch = cache.stale(sourceFiles);
+        Set<String> compiled = new LinkedHashSet<>();
+        List<Result> results = new ArrayList<>();
+        while (!batch.isEmpty()) {
+            List<String> next = new ArrayList<>();
+            // Marked before the scan, so that a caller in the same batch is not queued to compile again
+            compiled.addAll(batch);
+            for (Result r : compile(batch, passes, jobs)) {
+                results.add(r);
+                if (r.error() != null) {
+                    cache.remove(r.file());
+                    continue;
+                }
+                if (cache.update(r.file(), r.compiler().signatures(), r.compiler().calledClasses())) {
+                    // The callers of a class whose subroutines changed are compiled in the next batch
+                    for (String dependent : cache.dependents(BuildCache.className(r.file()))) {
+                        for (String file : sourceFiles) {
+                            if (BuildCache.className(file).equals(dependent) && !compiled.contains(file)
+                                    && !next.contains(file)) {
+                                next.add(file);
+                            }
+                        }
+                    }
+                }
+            }
+            batch = next;
+        }
+        cache.save();
+        if (caches != null) {
+            caches.put(directory.toAbsolutePath(), cache);
+        }
+        out.println("Compiled " + compiled.size() + " of " + sourceFiles.size() + " classes"
+                + (compiled.isEmpty() ? "" : ": " + String.join(" ", compiled.stream().map(BuildCache::className).toList())));
+        return finish(results, System.nanoTime() - begin, jobs, out);
+    }
+
+    /*
+    Compiles the source files, on the calling thread if jobs is 0 and on a pool of jobs threads else.
+    Without a pool, the first error is thrown instead of being returned in its Result.
+    */
+    private static List<Result> compile(Collection<String> sourceFiles, PassManager passes, int jobs)
+            throws IOException, InterruptedException {
+        List<Result> results = new ArrayList<>();
+        if (jobs == 0) {
+            /* Iterate through sourceFiles and compile */
+            for (String file : sourceFiles) {
+                long start = System.nanoTime();
+                CompilationEngine compiler = new CompilationEngine(file, passes);
+                compiler.compile();
+                results.add(new Result(file, System.nanoTime() - start, null, compiler));
+            }
+            return results;
+        }
+
+        // Each CompilationEngine owns its tokenizer, writers and symbol tables, so classes compile concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        List<Future<Result>> futures = new ArrayList<>();
         for (String file : sourceFiles) {
-            CompilationEngine compiler = new CompilationEngine(file);
-            compiler.compile();
+            futures.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                Exception error = null;
+                CompilationEngine compiler = null;
+                try {
+                    compiler = new CompilationEngine(file, passes);
+                    compiler.compile();
+                } catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+                return new Result(file, System.nanoTime() - start, error, compiler);
+            }));
+        }
+        executor.shutdown();
+
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /* With a pool, prints the time of each class. Returns the exit status, 1 if a class failed. */
+    private static int finish(List<Result> results, long totalNanos, int jobs, PrintStream out) {
+        return (jobs > 0 && printSummary(results, totalNanos, jobs, out) > 0) ? 1 : 0;
+    }
+
+    /* Prints the wall time of each class followed by the total. Returns the number of failures. */
+    private static int printSummary(List<Result> results, long totalNanos, int jobs, PrintStream out) {
+        int failures = 0;
+        long classNanos = 0;
+        for (Result r : results) {
+            classNanos += r.nanos();
+            if (r.error() != null) {
+                failures += 1;
+                out.printf("%s: FAILED after %.1f ms: %s%n", r.file(), r.nanos() / 1e6, r.error());
+            } else {
+                out.printf("%s: %.1f ms%n", r.file(), r.nanos() / 1e6);
+            }
         }
+        out.printf("%d classes (%d failed) on %d threads in %.1f ms, %.1f ms of compilation (%.2fx)%n",
+                results.size(), failures, jobs, totalNanos / 1e6, classNanos / 1e6,
+                (double) classNanos / Math.max(totalNanos, 1));
+        return failures;
     }
 }
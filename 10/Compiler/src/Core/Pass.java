@@ -0,0 +1,71 @@
+package Core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import Core.Ast.*;
+
+/*
+A Pass rewrites the syntax tree of a class between parsing and code generation. The default methods
+rebuild the tree bottom-up: the children of a node are rewritten before the node is handed to
+rewrite(), so that a pass only overrides the methods of the nodes it changes. statement() returns a
+list, so that a statement can be removed or replaced by several.
+*/
+public interface Pass {
+    String name();
+
+    default ClassDec run(ClassDec classDec) {
+        List<Subroutine> subroutines = new ArrayList<>();
+        for (Subroutine s : classDec.subroutines()) {
+            subroutines.add(new Subroutine(s.kind(), s.returnType(), s.name(), s.parameters(), s.locals(),
+                    statements(s.statements())));
+        }
+        return new ClassDec(classDec.name(), classDec.classVars(), subroutines);
+    }
+
+    default List<Statement> statements(List<Statement> statements) {
+        List<Statement> rewritten = new ArrayList<>();
+        for (Statement statement : statements) {
+            rewritten.addAll(statement(statement));
+        }
+        return rewritten;
+    }
+
+    default List<Statement> statement(Statement statement) {
+        if (statement instanceof Let let) {
+            return List.of(new Let(let.name(), (let.index() == null) ? null : expression(let.index()),
+                    expression(let.value())));
+        } else if (statement instanceof If s) {
+            return List.of(new If(expression(s.condition()), statements(s.thenStatements()),
+                    (s.elseStatements() == null) ? null : statements(s.elseStatements())));
+        } else if (statement instanceof While s) {
+            return List.of(new While(expression(s.condition()), statements(s.statements())));
+        } else if (statement instanceof Do s) {
+            return List.of(new Do((Call) expression(s.call())));
+        } else if (statement instanceof Return s && s.value() != null) {
+            return List.of(new Return(expression(s.value())));
+        }
+        return List.of(statement);
+    }
+
+    default Expression expression(Expression expression) {
+        Expression rebuilt = expression;
+        if (expression instanceof ArrayAccess e) {
+            rebuilt = new ArrayAccess(e.name(), expression(e.index()));
+        } else if (expression instanceof Unary e) {
+            rebuilt = new Unary(e.op(), expression(e.operand()));
+        } else if (expression instanceof Binary e) {
+            rebuilt = new Binary(e.op(), expression(e.left()), expression(e.right()));
+        } else if (expression instanceof Call e) {
+            rebuilt = new Call(e.target(), e.name(), e.arguments().stream().map(this::expression).toList());
+        } else if (expression instanceof ShiftLeft e) {
+            rebuilt = new ShiftLeft(expression(e.operand()), e.amount());
+        }
+        return rewrite(rebuilt);
+    }
+
+    /** Rewrites an expression whose children were rewritten already; a Call must stay a Call */
+    default Expression rewrite(Expression expression) {
+        return expression;
+    }
+}
@@ -0,0 +1,36 @@
+package Core;
+
+import java.util.List;
+
+import Core.Ast.ClassDec;
+
+/*
+The PassManager runs its passes over the syntax tree of a class in order, each on the tree the
+previous one made. Without passes, the tree is compiled as it was parsed.
+*/
+public class PassManager {
+    private final List<Pass> passes;
+
+    public PassManager(Pass... passes) {
+        this.passes = List.of(passes);
+    }
+
+    /**
+     * The passes of --optimize: constants are folded first, so that the other passes see the
+     * constant conditions and factors that arithmetic on constants makes.
+     */
+    public static PassManager optimizing() {
+        return new PassManager(new ConstantFolding(), new DeadBranchElimination(), new StrengthReduction());
+    }
+
+    public List<Pass> passes() {
+        return passes;
+    }
+
+    public ClassDec run(ClassDec classDec) {
+        for (Pass pass : passes) {
+            classDec = pass.run(classDec);
+        }
+        return classDec;
+    }
+}
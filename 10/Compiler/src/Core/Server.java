@@ -0,0 +1,143 @@
+package Core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+The Server compiles Jack programs for Clients over a Unix domain socket, so that repeated builds run
+in a JVM whose compiler code is already loaded and compiled by the JIT, and reuse the build caches of
+--incremental without reading them again. Requests are served one at a time.
+
+A request is the working directory of the client followed by its command line args, as a count and
+modified UTF-8 strings. The response is the exit status of Main.build() and what it printed, as a
+length and UTF-8 bytes. A request whose only arg is --stop stops the server.
+Usage: Server [--socket path]; the socket defaults to jackc.sock in the temporary directory.
+*/
+public class Server {
+    public static final String STOP = "--stop";
+
+    private final Path socket;
+    private final Map<Path, BuildCache> caches = new HashMap<>();
+
+    public Server(Path socket) {
+        this.socket = socket;
+    }
+
+    public static void main(String[] args) throws IOException {
+        new Server(socketPath(args)).run();
+    }
+
+    /** The path given by --socket path in args, else the default one */
+    public static Path socketPath(String[] args) {
+        if (args.length >= 2 && args[0].equals("--socket")) {
+            return Path.of(args[1]);
+        } else if (args.length > 0 && args[0].equals("--socket")) {
+            throw new IllegalArgumentException("--socket must be followed by a path");
+        }
+        return Path.of(System.getProperty("java.io.tmpdir"), "jackc.sock");
+    }
+
+    /** Serves requests until one asks to stop. Throws IllegalStateException if a server is already running. */
+    public void run() throws IOException {
+        if (isListening(socket)) {
+            throw new IllegalStateException("A server is already listening on " + socket);
+        }
+        // A socket file left by a server that did not stop cleanly would make bind() fail
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            System.out.println("Listening on " + socket);
+            boolean stop = false;
+            while (!stop) {
+                try (SocketChannel client = server.accept()) {
+                    stop = serve(client);
+                } catch (Throwable e) { // a bad request, or the client went away: the server goes on
+                    System.out.println("Request failed: " + e);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /* Returns true if a server accepts connections on the socket */
+    private static boolean isListening(Path socket) {
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /* Reads one request from the client and answers it. Returns true if it asked to stop. */
+    private boolean serve(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        Path workingDirectory = Path.of(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        boolean stop = args.length == 1 && args[0].equals(STOP);
+
+        long start = System.nanoTime();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status;
+        try (PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8)) {
+            if (stop) {
+                out.println("Stopped the server on " + socket);
+                status = 0;
+            } else {
+                status = build(args, workingDirectory, out);
+            }
+        }
+        System.out.printf("%s %s: %d in %.1f ms%n", workingDirectory, String.join(" ", args), status,
+                (System.nanoTime() - start) / 1e6);
+
+        DataOutputStream response = new DataOutputStream(Channels.newOutputStream(client));
+        byte[] bytes = output.toByteArray();
+        response.writeInt(status);
+        response.writeInt(bytes.length);
+        response.write(bytes);
+        response.flush();
+        return stop;
+    }
+
+    /*
+    Runs Main.build(), printing the error of a class that failed to compile instead of throwing it.
+    Any other failure, like a StackOverflowError on deeply nested code, fails only this request; the
+    caches it may have left half updated are dropped, so that the next build reads them again.
+    */
+    private int build(String[] args, Path workingDirectory, PrintStream out) {
+        try {
+            return Main.build(args, workingDirectory, out, caches);
+        } catch (IOException | RuntimeException e) {
+            out.println(e);
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println(e);
+            return 1;
+        } catch (Throwable e) {
+            caches.clear();
+            out.println(e);
+            System.out.println("Build failed: " + e);
+            return 1;
+        }
+    }
+}
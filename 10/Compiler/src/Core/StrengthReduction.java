@@ -0,0 +1,68 @@
+package Core;
+
+import Core.Ast.*;
+
+/*
+Replaces the calls to Math.multiply and Math.divide that a cheaper sequence can do, which saves
+hundreds of cycles each on Hack: a product by a power of two becomes a ShiftLeft, which doubles its
+operand by adding it to itself, and a product by 1 or a quotient by 1 becomes the other operand.
+A product by 0 becomes 0 when the other operand is pure, without calls or string constants that
+its evaluation would make. The Hack VM has no right shift, so a quotient by another power of two
+stays a call, unless both operands are constants that ConstantFolding divided already.
+*/
+public class StrengthReduction implements Pass {
+    @Override
+    public String name() {
+        return "strength";
+    }
+
+    @Override
+    public Expression rewrite(Expression expression) {
+        if (!(expression instanceof Binary binary)) {
+            return expression;
+        }
+        Integer right = ConstantFolding.valueOf(binary.right());
+        if (binary.op().equals("*")) {
+            if (right != null) {
+                return multiply(binary.left(), right, expression);
+            }
+            Integer left = ConstantFolding.valueOf(binary.left());
+            if (left != null) {
+                // The constant has no effects, so that the other operand may be evaluated first
+                return multiply(binary.right(), left, expression);
+            }
+        } else if (binary.op().equals("/") && right != null && right == 1) {
+            return binary.left();
+        }
+        return expression;
+    }
+
+    /* Returns operand * factor without a call if it can, else the product */
+    private static Expression multiply(Expression operand, int factor, Expression product) {
+        int bits = factor & 0xFFFF;
+        if (bits == 0) {
+            return isPure(operand) ? new IntConst(0) : product;
+        } else if (Integer.bitCount(bits) != 1) {
+            return product;
+        }
+        int amount = Integer.numberOfTrailingZeros(bits);
+        return (amount == 0) ? operand : new ShiftLeft(operand, amount);
+    }
+
+    /* True if evaluating the expression has no effects besides its value */
+    private static boolean isPure(Expression expression) {
+        if (expression instanceof IntConst || expression instanceof KeywordConst || expression instanceof Var) {
+            return true;
+        } else if (expression instanceof ArrayAccess e) {
+            return isPure(e.index());
+        } else if (expression instanceof Unary e) {
+            return isPure(e.operand());
+        } else if (expression instanceof Binary e) {
+            // Math.divide fails on 0
+            return !e.op().equals("/") && isPure(e.left()) && isPure(e.right());
+        } else if (expression instanceof ShiftLeft e) {
+            return isPure(e.operand());
+        }
+        return false; // calls and string constants, which allocate
+    }
+}
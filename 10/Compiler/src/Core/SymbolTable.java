@@ -2,9 +2,7 @@ package Core;
 
 import java.io.PrintWriter;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 import static Core.SymbolTable.Scope.*;
 
@@ -13,7 +11,6 @@ public class SymbolTable {
     public enum Scope {
         STATIC, FIELD, ARG, VAR
     }
-    public static HashSet<String> DATA_TYPES = new HashSet<>(Set.of("int","char","boolean"));
 
     /* Map ScopeType to cumulative index */
     private final Map<Scope, Integer> scopeToRunningIndex = new HashMap<>() {{
@@ -43,9 +40,6 @@ public class SymbolTable {
     /** Adds to the symbol table a new variable of the given name, dataType, and scope.
     Assigns to it the index value of that scope, and adds 1 to the index */
     public void define(String name, String dataType, Scope scope) {
-        // Add to set of data types, includes primitive and user-defined
-        DATA_TYPES.add(dataType);
-
         // Map name to new symbol table entry
         // Todo: handle case where name already exists by logging error
         Data data = new Data(dataType, scope, scopeToRunningIndex.get(scope));
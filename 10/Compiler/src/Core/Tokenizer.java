@@ -1,21 +1,25 @@
 package Core;
 
 import java.io.*;
-import java.util.ArrayDeque;
-
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+/*
+The Tokenizer reads the whole source into a char[] and splits it into tokens up front, classifying
+each char with a table of the 128 ASCII chars. A token is kept as three ints: its type, and the
+start and length of its text in the source. Keywords and symbols map to shared String constants, and
+the String of other tokens is only created when getCurrToken() asks for it.
+*/
 public class Tokenizer {
     public enum TokenType {
         keyword, symbol, identifier, integerConstant, stringConstant
     }
-    private record Pair(String token, TokenType type) {
-    }
-    private static final int EOF = -1;
-    private static final int NEWLINE = 0x0a;
-    private static final int CARRIAGE_RETURN = 0x0d;
+    private static final TokenType[] TYPES = TokenType.values();
     public static final Set<String> KEYWORDS = Set.of(
             "class","method","function","constructor","int","boolean","char","void", "var","static",
             "field","let","do","if","else","while","return","true","false","null","this");
@@ -25,19 +29,51 @@ public class Tokenizer {
         put("&", "&amp;");
         put("\"", "&quot;");
     }};
-    private static final Set<Character> SYMBOLS = Set.of(
-            '{', '}', '(', ')', '[', ']', '.', ',', ';', '+', '-', '*', '/', '&', '|', '<', '>', '=', '~');
+    private static final String SYMBOLS = "{}()[].,;+-*/&|<>=~";
+
+    /* Classes of the ASCII chars; any other char is part of a word unless it is whitespace */
+    private static final byte WORD = 0, DIGIT = 1, WHITESPACE = 2, SYMBOL = 3, QUOTE = 4, SLASH = 5;
+    private static final byte[] CLASSES = new byte[128];
+    private static final String[] SYMBOL_STRINGS = new String[128];
+    private static final String[][] KEYWORDS_BY_FIRST = new String[128][]; // keywords by their first char
+    static {
+        for (char c = 0; c < 128; c += 1) {
+            if (Character.isWhitespace(c)) {
+                CLASSES[c] = WHITESPACE;
+            } else if (c >= '0' && c <= '9') {
+                CLASSES[c] = DIGIT;
+            } else if (SYMBOLS.indexOf(c) >= 0) {
+                CLASSES[c] = SYMBOL;
+                SYMBOL_STRINGS[c] = Character.toString(c);
+            }
+        }
+        CLASSES['"'] = QUOTE;
+        CLASSES['/'] = SLASH;
+        for (String keyword : KEYWORDS) {
+            char first = keyword.charAt(0);
+            String[] same = (KEYWORDS_BY_FIRST[first] == null) ? new String[0] : KEYWORDS_BY_FIRST[first];
+            same = Arrays.copyOf(same, same.length + 1);
+            same[same.length - 1] = keyword;
+            KEYWORDS_BY_FIRST[first] = same;
+        }
+    }
 
-    private boolean dataIsRemaining = true;
-    private BufferedReader bufferedReader;
     private String filePrefix;
-    private final ArrayDeque<Pair> queue = new ArrayDeque<>();
+    private char[] source = new char[0];
+    private int count = 0;                   // number of tokens
+    private byte[] types = new byte[0];      // ordinal of the TokenType of each token
+    private int[] starts = new int[0];
+    private int[] lengths = new int[0];
+    private String[] interned = new String[0]; // the String of each keyword and symbol
+    private int curr = 0;                    // index of the current token
+    private String currToken;                // String of the current token, once asked for
 
     public Tokenizer(String source) throws IOException {
         if (source.endsWith(".jack")) {
             filePrefix = source.substring(0, source.length() - 5);
-            bufferedReader = new BufferedReader(new FileReader(source));
-            advance(); // initially point to first token, if it exists
+            // Decoded like a FileReader, which replaces malformed input instead of failing
+            this.source = new String(Files.readAllBytes(Path.of(source)), Charset.defaultCharset()).toCharArray();
+            scan();
         }
     }
 
@@ -62,129 +98,174 @@ public class Tokenizer {
         writer.close();
     }
 
-    /** Frees all resources used by Core.Tokenizer */
+    /** Frees all resources used by Core.Tokenizer. The source is read whole, so no file is left open. */
     public void close() throws IOException {
-        bufferedReader.close();
     }
 
     /** Returns true if there are more tokens in the input */
     public boolean hasMoreTokens() {
-        // queue is not empty OR dataIsRemaining = true
-        return !queue.isEmpty() || dataIsRemaining;
+        return curr < count;
     }
 
-    /** Gets the next token from the input, and makes it the current token.
-    * Should ignore whitespace and comments
-    * If encountered a symbol (single char), should consider this as one token
-    * If encountered //, should ignore everything until after newline
-    * If encountered /*, should ignore everything between start and terminating * and /
-    * Note: Handling /* will also handle the case of /**
-    */
+    /** Makes the next token the current token */
     public void advance() throws IOException {
-        queue.poll(); // initially remove the head of the queue
-        if (!queue.isEmpty()) { // at least one token in the queue, remove the first one
-            return;
+        if (curr < count) {
+            curr += 1;
+            currToken = null;
         }
-        /* If the queue is empty, need to read file and get more tokens */
-        int curr, next;
-        boolean lineComment = false;
-        boolean blockComment = false;
-        boolean strConstant = false;
-        StringBuilder buffer = new StringBuilder();
-
-        while (dataIsRemaining) { // loop breaks if EOF or string constant found
-            curr = bufferedReader.read();
-            // char tmp = (char) curr;
-
-            /* Terminating condition */
-            if (curr == EOF) {
-                dataIsRemaining = false;
-            }
-            else if (lineComment) {
-                if (curr == CARRIAGE_RETURN || curr == NEWLINE) {
-                    if(curr == CARRIAGE_RETURN){
-                        bufferedReader.read();
-                    }
-                    lineComment = false;
+    }
+
+    /* Splits the source into tokens.
+    * Whitespace and comments are skipped: // until the end of the line, and /* until the first * and /
+    * (which handles /** too). Each symbol is a token of its own, a string constant is everything
+    * between two quotation marks, and a run of any other chars is an integer constant if it is all
+    * digits, else a keyword or an identifier. */
+    private void scan() {
+        char[] text = source;
+        int length = text.length;
+        int i = 0;
+        while (i < length) {
+            char c = text[i];
+            byte charClass = (c < 128) ? CLASSES[c] : (Character.isWhitespace(c) ? WHITESPACE : WORD);
+            switch (charClass) {
+                case WHITESPACE -> i += 1;
+                case SYMBOL -> {
+                    add(TokenType.symbol, i, 1, SYMBOL_STRINGS[c]);
+                    i += 1;
                 }
-            }
-            else if (blockComment) {
-                if (curr == '*') {
-                    next = (char) bufferedReader.read();
-                    if (next == '/') {
-                        blockComment = false;
+                case SLASH -> {
+                    if (i + 1 < length && text[i + 1] == '/') {
+                        i += 2;
+                        while (i < length && text[i] != '\n' && text[i] != '\r') {
+                            i += 1;
+                        }
+                    } else if (i + 1 < length && text[i + 1] == '*') {
+                        i += 2;
+                        while (i < length && !(text[i] == '*' && i + 1 < length && text[i + 1] == '/')) {
+                            i += 1;
+                        }
+                        i += 2;
+                    } else {
+                        add(TokenType.symbol, i, 1, SYMBOL_STRINGS['/']);
+                        i += 1;
                     }
                 }
-            }
-            else if (strConstant) {
-                if (curr == '"') {
-                    queue.addLast(new Pair(buffer.toString(), TokenType.stringConstant));
-                    break;
-                }
-                buffer.append((char) curr);
-            }
-            else { // none of the above
-                if (Character.isWhitespace(curr)) {
-                    addToQueue(buffer);
+                case QUOTE -> {
+                    int start = i + 1;
+                    i = start;
+                    while (i < length && text[i] != '"') {
+                        i += 1;
+                    }
+                    if (i < length) { // an unterminated string constant is dropped
+                        add(TokenType.stringConstant, start, i - start, null);
+                    }
+                    i += 1;
                 }
-                else if (curr == '/') {
-                    /* '/' has to be a symbol or start of comment, so add current buffer to queue */
-                    addToQueue(buffer);
-                    next = bufferedReader.read();
-                    if (next == EOF) {
-                        dataIsRemaining = false;
-                    } else if (next == '/') { // start of line comment
-                        lineComment = true;
-                    } else if (next == '*') { // start of block comment
-                        blockComment = true;
-                    } else {                  // '/' is thus a symbol
-                        queue.addLast(new Pair(Character.toString(curr), TokenType.symbol));
-                        if (!Character.isWhitespace(next)) {
-                            buffer.append((char) next);
+                default -> { // WORD or DIGIT
+                    int start = i;
+                    boolean digits = true;
+                    while (i < length) {
+                        char w = text[i];
+                        byte wordClass = (w < 128) ? CLASSES[w] : (Character.isWhitespace(w) ? WHITESPACE : WORD);
+                        if (wordClass == DIGIT) {
+                            i += 1;
+                        } else if (wordClass == WORD) {
+                            digits = false;
+                            i += 1;
+                        } else {
+                            break;
                         }
                     }
+                    if (digits) {
+                        add(TokenType.integerConstant, start, i - start, null);
+                    } else {
+                        String keyword = keyword(text, start, i - start);
+                        add((keyword != null) ? TokenType.keyword : TokenType.identifier, start, i - start, keyword);
+                    }
                 }
-                else if (SYMBOLS.contains((char) curr)) { // symbols other than '/'
-                    addToQueue(buffer);
-                    queue.addLast(new Pair(Character.toString(curr), TokenType.symbol));
-                }
-                else if (curr == '"') {
-                    addToQueue(buffer);
-                    strConstant = true;
+            }
+        }
+    }
+
+    /* Returns the keyword spelled by the given chars, or null if they are not a keyword */
+    private static String keyword(char[] text, int start, int length) {
+        char first = text[start];
+        String[] candidates = (first < 128) ? KEYWORDS_BY_FIRST[first] : null;
+        if (candidates == null) {
+            return null;
+        }
+        for (String keyword : candidates) {
+            if (keyword.length() == length) {
+                int k = 1;
+                while (k < length && keyword.charAt(k) == text[start + k]) {
+                    k += 1;
                 }
-                else { // curr is not whitespace, a symbol, quotation mark, or '/'
-                    buffer.append((char) curr);
+                if (k == length) {
+                    return keyword;
                 }
             }
         }
+        return null;
     }
 
-    /* Abstraction to handle the current buffer (even if buffer is empty)
-    * Doesn't do anything if buffer is empty, but if it's not, determines whether the string in the
-    * buffer is an INT_CONST, KEYWORD, or IDENTIFIER */
-    private void addToQueue(StringBuilder buffer) {
-        if (!buffer.isEmpty()) {
-            String token = buffer.toString();
-            TokenType type;
-            if (token.matches("\\d+")) {
-                type = TokenType.integerConstant;
-            } else if (KEYWORDS.contains(token)) {
-                type = TokenType.keyword;
-            } else {
-                type = TokenType.identifier;
-            }
-            queue.addLast(new Pair(token, type));
-            buffer.delete(0, buffer.length());
+    private void add(TokenType type, int start, int length, String string) {
+        if (count == types.length) {
+            int capacity = Math.max(64, count * 2);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            interned = Arrays.copyOf(interned, capacity);
         }
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        interned[count] = string;
+        count += 1;
     }
 
     /** Returns the current token as a string */
     public String getCurrToken() {
-        return queue.peek().token();
+        if (currToken == null) {
+            currToken = (interned[checkCurr()] != null)
+                    ? interned[curr] : new String(source, starts[curr], lengths[curr]);
+        }
+        return currToken;
     }
 
     /** Returns the type of the current token as a constant of TokenType */
     public TokenType getCurrType() {
-        return queue.peek().type();
+        return TYPES[types[checkCurr()]];
+    }
+
+    /** Returns the ordinal of the TokenType of the current token */
+    public int getCurrTypeOrdinal() {
+        return types[checkCurr()];
+    }
+
+    /** Returns the offset in getSource() of the first char of the current token */
+    public int getCurrStart() {
+        return starts[checkCurr()];
+    }
+
+    /** Returns the number of chars of the current token, without the quotes of a string constant */
+    public int getCurrLength() {
+        return lengths[checkCurr()];
+    }
+
+    /** The chars of the source, which the start and length of the tokens refer to */
+    public char[] getSource() {
+        return source;
+    }
+
+    /** Returns the number of tokens in the source */
+    public int tokenCount() {
+        return count;
+    }
+
+    private int checkCurr() {
+        if (curr >= count) {
+            throw new IllegalStateException("No more tokens" + ((filePrefix == null) ? "" : " in " + filePrefix + ".jack"));
+        }
+        return curr;
     }
-}
\ No newline at end of file
+}
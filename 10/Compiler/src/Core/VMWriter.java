@@ -11,7 +11,7 @@ import static Core.VMWriter.Arithmetic.*;
 import static Core.VMWriter.Arithmetic.not;
 
 public class VMWriter {
-    public static Map<String, Arithmetic> OP_TO_COMMAND = new HashMap<>() {{
+    public static final Map<String, Arithmetic> OP_TO_COMMAND = new HashMap<>() {{
         put("+", add);
         put("-", sub);
         put("=", eq);
@@ -20,7 +20,7 @@ public class VMWriter {
         put("|", or);
         put("&", and);
     }};
-    public static Map<String, Arithmetic> UNARY_OP_TO_COMMAND = new HashMap<>() {{
+    public static final Map<String, Arithmetic> UNARY_OP_TO_COMMAND = new HashMap<>() {{
         put("-", neg); // same as minus in OP_TO_COMMAND
         put("~", not);
     }};
@@ -0,0 +1,90 @@
+import Core.Ast.*;
+import Core.ConstantFolding;
+import Core.DeadBranchElimination;
+import Core.Pass;
+import Core.StrengthReduction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class UnitTestPasses {
+    private static final Expression MINUS_ONE = new Unary("-", new IntConst(1));
+    private static final Expression MIN_VALUE = new Unary("~", new IntConst(32767)); // -32768
+    private static final Expression TRUE = MINUS_ONE;
+
+    private final Pass fold = new ConstantFolding();
+    private final Pass deadBranches = new DeadBranchElimination();
+    private final Pass strength = new StrengthReduction();
+
+    @Test
+    public void foldComparisonTest() {
+        Assert.assertEquals(TRUE, fold.expression(new Binary("<", new IntConst(1), new IntConst(2))));
+        Assert.assertEquals(new IntConst(0), fold.expression(new Binary(">", new IntConst(1), new IntConst(2))));
+    }
+
+    @Test
+    public void comparisonThatOverflowsIsNotFoldedTest() {
+        // 32767 - (-1) and -32768 - 1 overflow, so the VM's sign of x - y disagrees with x < y
+        Expression less = new Binary("<", new IntConst(32767), MINUS_ONE);
+        Expression greater = new Binary(">", MIN_VALUE, new IntConst(1));
+        Assert.assertEquals(less, fold.expression(less));
+        Assert.assertEquals(greater, fold.expression(greater));
+    }
+
+    @Test
+    public void divisionThatFailsIsNotFoldedTest() {
+        Expression byZero = new Binary("/", new IntConst(5), new IntConst(0));
+        Expression overflow = new Binary("/", MIN_VALUE, MINUS_ONE);
+        Assert.assertEquals(byZero, fold.expression(byZero));
+        Assert.assertEquals(overflow, fold.expression(overflow));
+        Assert.assertEquals(new Unary("-", new IntConst(3)),
+                fold.expression(new Binary("/", new IntConst(7), new Unary("-", new IntConst(2)))));
+    }
+
+    @Test
+    public void minValueIsComplementTest() {
+        // The VM cannot push 32768, so -32768 is ~32767
+        Assert.assertEquals(MIN_VALUE, fold.expression(new Binary("-", new Unary("-", new IntConst(32767)),
+                new IntConst(1))));
+        Assert.assertEquals(MIN_VALUE, fold.expression(new Binary("+", new IntConst(32767), new IntConst(1))));
+    }
+
+    @Test
+    public void productByZeroKeepsCallTest() {
+        Expression call = new Binary("*", new Call("Main", "f", List.of()), new IntConst(0));
+        Assert.assertEquals(call, strength.expression(call));
+        Assert.assertEquals(new IntConst(0), strength.expression(new Binary("*", new Var("x"), new IntConst(0))));
+    }
+
+    @Test
+    public void productByPowerOfTwoIsShiftTest() {
+        Assert.assertEquals(new ShiftLeft(new Var("x"), 1),
+                strength.expression(new Binary("*", new IntConst(2), new Var("x"))));
+        Assert.assertEquals(new ShiftLeft(new Var("x"), 3),
+                strength.expression(new Binary("*", new Var("x"), new IntConst(8))));
+        Assert.assertEquals(new Var("x"), strength.expression(new Binary("*", new Var("x"), new IntConst(1))));
+        Expression product = new Binary("*", new Var("x"), new IntConst(6));
+        Assert.assertEquals(product, strength.expression(product));
+    }
+
+    @Test
+    public void ifOfOneTakesElseTest() {
+        // Only -1 enters the then statements
+        List<Statement> thenStatements = List.of(new Do(new Call("Main", "f", List.of())));
+        List<Statement> elseStatements = List.of(new Return(null));
+        Assert.assertEquals(elseStatements,
+                deadBranches.statement(new If(new IntConst(1), thenStatements, elseStatements)));
+        Assert.assertEquals(List.of(), deadBranches.statement(new If(new IntConst(1), thenStatements, null)));
+        Assert.assertEquals(thenStatements,
+                deadBranches.statement(new If(TRUE, thenStatements, elseStatements)));
+    }
+
+    @Test
+    public void whileFalseIsRemovedTest() {
+        List<Statement> body = List.of(new Let("x", null, new IntConst(1)));
+        Assert.assertEquals(List.of(), deadBranches.statement(new While(new KeywordConst("false"), body)));
+        Statement loop = new While(new KeywordConst("true"), body);
+        Assert.assertEquals(List.of(loop), deadBranches.statement(loop));
+    }
+}